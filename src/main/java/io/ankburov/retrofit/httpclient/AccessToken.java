@@ -0,0 +1,68 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.time.Instant;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Token sent in the {@code Authorization} header until it expires
+ */
+public final class AccessToken {
+    
+    private static final String BEARER = "Bearer";
+    
+    @NotNull
+    private final String value;
+    
+    @NotNull
+    private final Instant expiresAt;
+    
+    /**
+     * Computed once, the header is set on every request
+     */
+    @NotNull
+    private final String headerValue;
+    
+    private AccessToken(@NotNull String type, @NotNull String value, @NotNull Instant expiresAt) {
+        this.value = value;
+        this.expiresAt = expiresAt;
+        this.headerValue = type + " " + value;
+    }
+    
+    @NotNull
+    public static AccessToken bearer(@NotNull String value, @NotNull Instant expiresAt) {
+        return new AccessToken(BEARER, value, expiresAt);
+    }
+    
+    /**
+     * @param type authorization scheme, like {@code Bearer} or {@code MAC}
+     */
+    @NotNull
+    public static AccessToken of(@NotNull String type, @NotNull String value, @NotNull Instant expiresAt) {
+        return new AccessToken(type, value, expiresAt);
+    }
+    
+    @NotNull
+    public String value() {
+        return value;
+    }
+    
+    @NotNull
+    public Instant expiresAt() {
+        return expiresAt;
+    }
+    
+    /**
+     * Value of the {@code Authorization} header
+     */
+    @NotNull
+    public String headerValue() {
+        return headerValue;
+    }
+    
+    @Override
+    public String toString() {
+        // the value is a secret
+        return "AccessToken{expiresAt=" + expiresAt + "}";
+    }
+}
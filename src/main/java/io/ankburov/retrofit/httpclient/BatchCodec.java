@@ -0,0 +1,35 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+
+/**
+ * Combines request bodies of {@link Batched} calls into one batch request body and splits the batch response body
+ * back into a body per call
+ */
+public interface BatchCodec {
+    
+    /**
+     * Bodies are JSON values sent as a JSON array, the response is a JSON array with an item per call in the same order
+     */
+    BatchCodec JSON_ARRAY = new JsonArrayBatchCodec();
+    
+    @NotNull
+    RequestBody combine(@NotNull List<RequestBody> bodies) throws IOException;
+    
+    /**
+     * Called for successful responses only, a body of any other response is given to every call as is. The batch
+     * response is closed once split, so the returned bodies must not read from it
+     *
+     * @param parts number of calls in the batch
+     * @return bodies in the order of the calls
+     * @throws IOException if the body can not be split into the number of parts, the calls of the batch fail with it
+     */
+    @NotNull
+    List<ResponseBody> split(@NotNull ResponseBody body, int parts) throws IOException;
+}
@@ -0,0 +1,35 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Asynchronous calls of a Retrofit service method arriving within a short window are sent as one batch request,
+ * if the call factory is built with {@link HttpClientRetrofitCallFactory.Builder#withBatching(BatchCodec)}
+ * <p>
+ * Calls of a batch share the url, the http method and the headers of the first call. Synchronous calls and
+ * calls without a body are sent one by one
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Batched {
+    
+    /**
+     * Most calls in one batch, a full batch is sent at once
+     */
+    int maxSize() default 50;
+    
+    /**
+     * How long the first call of a batch waits for others, in milliseconds
+     */
+    long windowMillis() default 5;
+    
+    /**
+     * Url of the batch endpoint resolved against the url of the call, the url of the call itself if empty
+     */
+    String url() default "";
+}
@@ -0,0 +1,251 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Collects asynchronous calls of {@link Batched} methods and sends them as one call of the same factory
+ * <p>
+ * Calls are batched by http method, url and headers. A batch is sent once it is full or its window is over.
+ * The batch call is tagged, so it is not batched again, and it goes through the interceptors like any other call.
+ * It has the earliest deadline and the highest priority of its calls
+ */
+final class CallBatcher {
+    
+    @NotNull
+    private final HttpClientRetrofitCallFactory callFactory;
+    
+    @NotNull
+    private final BatchCodec codec;
+    
+    private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<>();
+    
+    private final ConcurrentMap<Method, Optional<Batched>> methodBatching = new ConcurrentHashMap<>();
+    
+    CallBatcher(@NotNull HttpClientRetrofitCallFactory callFactory, @NotNull BatchCodec codec) {
+        this.callFactory = callFactory;
+        this.codec = codec;
+    }
+    
+    /**
+     * @return false if the call is not batched and has to be sent by itself
+     */
+    boolean offer(@NotNull HttpClientRetrofitCall call, @NotNull Callback callback) {
+        Request request = call.request();
+        if (!Platform.INVOCATION_SUPPORTED || request.body() == null || request.tag(CallBatcher.class) != null) {
+            return false;
+        }
+        Batched batched = MethodBatching.lookup(methodBatching, request);
+        if (batched == null || batched.maxSize() < 2) {
+            return false;
+        }
+        String key = request.method() + ' ' + request.url() + '\n' + request.headers();
+        Part part = new Part(call, callback);
+        while (true) {
+            Batch batch = batches.computeIfAbsent(key, k -> new Batch(k, batched));
+            if (batch.add(part)) {
+                return true;
+            }
+            // the batch was sent meanwhile, the call starts a new one
+        }
+    }
+    
+    private static final class Part {
+        
+        @NotNull
+        private final HttpClientRetrofitCall call;
+        
+        @NotNull
+        private final Callback callback;
+        
+        private Part(@NotNull HttpClientRetrofitCall call, @NotNull Callback callback) {
+            this.call = call;
+            this.callback = callback;
+        }
+    }
+    
+    private final class Batch {
+        
+        @NotNull
+        private final String key;
+        
+        @NotNull
+        private final Batched batched;
+        
+        private final List<Part> parts = new ArrayList<>();
+        
+        /**
+         * Guarded by this, a closed batch is being sent and accepts no calls
+         */
+        private boolean closed;
+        
+        private Batch(@NotNull String key, @NotNull Batched batched) {
+            this.key = key;
+            this.batched = batched;
+        }
+        
+        /**
+         * @return false if the batch is closed
+         */
+        private boolean add(Part part) {
+            boolean full;
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                parts.add(part);
+                full = parts.size() >= batched.maxSize();
+                if (full) {
+                    closed = true;
+                } else if (parts.size() == 1) {
+                    callFactory.scheduler.schedule(this::windowOver, batched.windowMillis(), TimeUnit.MILLISECONDS);
+                }
+            }
+            if (full) {
+                send();
+            }
+            return true;
+        }
+        
+        private void windowOver() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            send();
+        }
+        
+        private void send() {
+            batches.remove(key, this);
+            Request first = parts.get(0).call.request();
+            Request batchRequest;
+            try {
+                List<RequestBody> bodies = new ArrayList<>(parts.size());
+                for (Part part : parts) {
+                    bodies.add(part.call.request().body());
+                }
+                HttpUrl url = batched.url().isEmpty() ? first.url() : first.url().resolve(batched.url());
+                if (url == null) {
+                    throw new IOException("Invalid batch url " + batched.url());
+                }
+                Request.Builder builder = first.newBuilder()
+                        .url(url)
+                        .method(first.method(), codec.combine(bodies))
+                        .tag(CallBatcher.class, CallBatcher.this)
+                        .tag(Deadline.class, earliestDeadline());
+                if (callFactory.prioritized) {
+                    builder.tag(CallPriority.class, highestPriority());
+                }
+                batchRequest = builder.build();
+            } catch (IOException | RuntimeException e) {
+                failed(e instanceof IOException ? (IOException) e : new HttpFactoryException(e));
+                return;
+            }
+            callFactory.newCall(batchRequest).enqueueBatch(new Callback() {
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) {
+                    List<Response> responses;
+                    try {
+                        responses = split(response);
+                    } catch (IOException e) {
+                        failed(e);
+                        return;
+                    } catch (RuntimeException e) {
+                        failed(new HttpFactoryException(e));
+                        return;
+                    } finally {
+                        if (response.body() != null) {
+                            response.close();
+                        }
+                    }
+                    for (int i = 0; i < parts.size(); i++) {
+                        Part part = parts.get(i);
+                        part.call.batchCompleted(part.callback, responses.get(i));
+                    }
+                }
+                
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    failed(e);
+                }
+            });
+        }
+        
+        @Nullable
+        private Deadline earliestDeadline() {
+            Deadline earliest = null;
+            for (Part part : parts) {
+                Deadline deadline = part.call.deadline();
+                if (deadline != null && (earliest == null || deadline.isBefore(earliest))) {
+                    earliest = deadline;
+                }
+            }
+            return earliest;
+        }
+        
+        @NotNull
+        private CallPriority highestPriority() {
+            CallPriority highest = CallPriority.LOW;
+            for (Part part : parts) {
+                CallPriority priority = CallPriority.of(part.call.request());
+                if (priority.compareTo(highest) < 0) {
+                    highest = priority;
+                }
+            }
+            return highest;
+        }
+        
+        /**
+         * A successful response is split by the codec, other responses are given to every call
+         */
+        private List<Response> split(Response response) throws IOException {
+            ResponseBody body = response.body();
+            List<ResponseBody> bodies;
+            if (body == null) {
+                bodies = null;
+            } else if (response.isSuccessful()) {
+                bodies = codec.split(body, parts.size());
+            } else {
+                byte[] bytes = body.bytes();
+                bodies = new ArrayList<>(parts.size());
+                for (int i = 0; i < parts.size(); i++) {
+                    bodies.add(ResponseBody.create(bytes, body.contentType()));
+                }
+            }
+            List<Response> responses = new ArrayList<>(parts.size());
+            for (int i = 0; i < parts.size(); i++) {
+                responses.add(response.newBuilder()
+                        .request(parts.get(i).call.request())
+                        .removeHeader("Content-Length")
+                        .body(bodies == null ? null : bodies.get(i))
+                        .build());
+            }
+            return responses;
+        }
+        
+        private void failed(IOException e) {
+            for (Part part : parts) {
+                part.call.batchFailed(part.callback, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Mutable attributes of a single call, shared by interceptors between request and result processing
+ * <p>
+ * Unlike request tags, storing an attribute does not copy the request. Attributes are keyed by type like
+ * OkHttp tags. The context is confined to its call and is not meant to be accessed concurrently
+ */
+public class CallContext {
+    
+    private static final int INITIAL_CAPACITY = 4;
+    
+    /**
+     * Type and value pairs, allocated on the first put
+     */
+    @Nullable
+    private Object[] entries;
+    
+    private int size;
+    
+    @Nullable
+    public <T> T get(@NotNull Class<? extends T> type) {
+        for (int i = 0; i < size; i += 2) {
+            if (entries[i] == type) {
+                return type.cast(entries[i + 1]);
+            }
+        }
+        return null;
+    }
+    
+    public <T> void put(@NotNull Class<T> type, @Nullable T value) {
+        for (int i = 0; i < size; i += 2) {
+            if (entries[i] == type) {
+                entries[i + 1] = value;
+                return;
+            }
+        }
+        if (entries == null) {
+            entries = new Object[INITIAL_CAPACITY * 2];
+        } else if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        entries[size++] = type;
+        entries[size++] = value;
+    }
+}
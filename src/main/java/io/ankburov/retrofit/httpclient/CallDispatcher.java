@@ -0,0 +1,152 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Admits asynchronous calls to Http Client, at most maxConcurrentCalls wait for their response headers at once.
+ * The rest are queued and sent in priority order, FIFO within a priority
+ * <p>
+ * Queued calls are sent on the send executor, not on the Http Client thread releasing the slot, since sending runs
+ * interceptors and builds the request body
+ */
+class CallDispatcher {
+    
+    private final int maxConcurrentCalls;
+    
+    @NotNull
+    private final Executor sendExecutor;
+    
+    // guarded by this
+    private final ArrayDeque<QueuedCall>[] queues;
+    private int runningCalls;
+    
+    @SuppressWarnings("unchecked")
+    CallDispatcher(int maxConcurrentCalls, @NotNull Executor sendExecutor) {
+        if (maxConcurrentCalls <= 0) {
+            throw new IllegalArgumentException("Max concurrent calls must be positive: " + maxConcurrentCalls);
+        }
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.sendExecutor = sendExecutor;
+        this.queues = (ArrayDeque<QueuedCall>[]) new ArrayDeque<?>[CallPriority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+    
+    /**
+     * @param send sends the call, the returned future is completed once the call releases its slot
+     */
+    void enqueue(@NotNull Object call, @NotNull CallPriority priority, @NotNull Supplier<CompletableFuture<?>> send) {
+        synchronized (this) {
+            if (runningCalls >= maxConcurrentCalls) {
+                queues[priority.ordinal()].add(new QueuedCall(call, send));
+                return;
+            }
+            runningCalls++;
+        }
+        run(send);
+    }
+    
+    /**
+     * @return true if the call was still queued and will never be sent
+     */
+    synchronized boolean remove(@NotNull Object call) {
+        for (ArrayDeque<QueuedCall> queue : queues) {
+            for (Iterator<QueuedCall> iterator = queue.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().call == call) {
+                    iterator.remove();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    synchronized int getRunningCalls() {
+        return runningCalls;
+    }
+    
+    synchronized int getQueuedCalls() {
+        int queued = 0;
+        for (ArrayDeque<QueuedCall> queue : queues) {
+            queued += queue.size();
+        }
+        return queued;
+    }
+    
+    /**
+     * Sends calls on the current thread until one of them holds the slot, calls not sent at all, like expired or
+     * canceled ones, release the slot at once and are followed by the next queued call in the same loop
+     */
+    private void run(Supplier<CompletableFuture<?>> send) {
+        while (true) {
+            CompletableFuture<?> sent;
+            try {
+                sent = send.get();
+            } catch (RuntimeException | Error e) {
+                finished();
+                throw e;
+            }
+            if (!sent.isDone()) {
+                sent.whenComplete((result, throwable) -> finished());
+                return;
+            }
+            QueuedCall next = nextOrRelease();
+            if (next == null) {
+                return;
+            }
+            send = next.send;
+        }
+    }
+    
+    /**
+     * The slot is passed to the next queued call, sent on the send executor
+     */
+    private void finished() {
+        QueuedCall next = nextOrRelease();
+        if (next != null) {
+            sendExecutor.execute(() -> run(next.send));
+        }
+    }
+    
+    /**
+     * @return the next queued call taking over the slot, or null if the slot is released
+     */
+    @Nullable
+    private synchronized QueuedCall nextOrRelease() {
+        QueuedCall next = poll();
+        if (next == null) {
+            runningCalls--;
+        }
+        return next;
+    }
+    
+    @Nullable
+    private QueuedCall poll() {
+        for (ArrayDeque<QueuedCall> queue : queues) {
+            QueuedCall call = queue.poll();
+            if (call != null) {
+                return call;
+            }
+        }
+        return null;
+    }
+    
+    private static final class QueuedCall {
+        
+        private final Object call;
+        private final Supplier<CompletableFuture<?>> send;
+        
+        private QueuedCall(Object call, Supplier<CompletableFuture<?>> send) {
+            this.call = call;
+            this.send = send;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+
+import org.jetbrains.annotations.NotNull;
+
+import okhttp3.Call;
+import okhttp3.Response;
+
+/**
+ * Listener of call phases, similar to OkHttp's EventListener
+ * <p>
+ * Phase durations are measured by the call itself and passed in nanoseconds, so a single stateless listener
+ * can be shared between all calls. If no listener is registered, the call measures nothing and allocates nothing
+ * <p>
+ * Every started call is completed by exactly one of {@link #callEnd(Call, Response, long)},
+ * {@link #callFailed(Call, IOException, long)} and {@link #callCanceled(Call, long)}
+ */
+public interface CallEventListener {
+    
+    CallEventListener NONE = new CallEventListener() {
+    };
+    
+    /**
+     * Invoked once per call before any other event
+     */
+    default void callStart(@NotNull Call call) {
+    }
+    
+    /**
+     * Request interceptors are completed
+     */
+    default void requestIntercepted(@NotNull Call call, long durationNanos) {
+    }
+    
+    /**
+     * Http Client request is built by {@link HttpRequestFactory}
+     */
+    default void requestBuilt(@NotNull Call call, long durationNanos) {
+    }
+    
+    /**
+     * Response headers are received, duration is measured from the moment the request was handed to Http Client
+     */
+    default void responseHeadersReceived(@NotNull Call call, long durationNanos) {
+    }
+    
+    /**
+     * Response processing is submitted to the async callback executor
+     */
+    default void callbackQueued(@NotNull Call call) {
+    }
+    
+    /**
+     * Async callback executor started response processing, duration is the time spent in the executor queue
+     */
+    default void callbackDispatched(@NotNull Call call, long queuedNanos) {
+    }
+    
+    /**
+     * Http Client response is converted by {@link RetrofitResponseFactory}
+     */
+    default void responseConverted(@NotNull Call call, long durationNanos) {
+    }
+    
+    /**
+     * Call is sent again after the response, which is already closed, for example a 401 response of a call
+     * authenticated by {@link TokenAuthenticator}. Phase events of the new attempt follow
+     */
+    default void callRetried(@NotNull Call call, @NotNull Response response) {
+    }
+    
+    /**
+     * Response is about to be handed to the caller, duration is measured from {@link #callStart(Call)}
+     */
+    default void callEnd(@NotNull Call call, @NotNull Response response, long durationNanos) {
+    }
+    
+    /**
+     * Call failed, duration is measured from {@link #callStart(Call)}
+     */
+    default void callFailed(@NotNull Call call, @NotNull IOException exception, long durationNanos) {
+    }
+    
+    /**
+     * Call is canceled before its response was handed to the caller, duration is measured from {@link #callStart(Call)}
+     */
+    default void callCanceled(@NotNull Call call, long durationNanos) {
+    }
+    
+    /**
+     * Response body is closed, duration is measured from {@link #callEnd(Call, Response, long)}
+     */
+    default void responseBodyClosed(@NotNull Call call, long bytesRead, long durationNanos) {
+    }
+    
+    /**
+     * Creates a listener per call, use it when the listener has to keep per call state
+     */
+    interface Factory {
+        
+        Factory NONE = call -> CallEventListener.NONE;
+        
+        @NotNull
+        CallEventListener create(@NotNull Call call);
+    }
+}
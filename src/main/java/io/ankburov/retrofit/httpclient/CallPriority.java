@@ -0,0 +1,33 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.NotNull;
+
+import okhttp3.Request;
+
+/**
+ * Priority of an asynchronous call, honored by the call dispatcher and {@link PriorityCallbackExecutor}
+ * <p>
+ * Set it per call by a request tag, like Retrofit {@code @Tag CallPriority} parameter, or per service method by
+ * {@link Priority} annotation
+ */
+public enum CallPriority {
+    
+    HIGH,
+    NORMAL,
+    LOW;
+    
+    private static final ConcurrentMap<Method, CallPriority> METHOD_PRIORITIES = new ConcurrentHashMap<>();
+    
+    @NotNull
+    static CallPriority of(@NotNull Request request) {
+        CallPriority priority = request.tag(CallPriority.class);
+        if (priority != null) {
+            return priority;
+        }
+        return Platform.INVOCATION_SUPPORTED ? MethodPriority.lookup(METHOD_PRIORITIES, request) : NORMAL;
+    }
+}
@@ -0,0 +1,13 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+
+/**
+ * Call is not sent because the call factory can not admit it
+ */
+public class CallRejectedException extends IOException {
+    
+    public CallRejectedException(String message) {
+        super(message);
+    }
+}
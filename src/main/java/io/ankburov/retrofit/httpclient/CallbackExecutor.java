@@ -0,0 +1,354 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.jetbrains.annotations.NotNull;
+
+import io.ankburov.retrofit.httpclient.stats.LatencyHistogram;
+
+/**
+ * Instrumented async callback executor, the default one of {@link HttpClientRetrofitCallFactory}
+ * <p>
+ * Callbacks run on a ForkJoin pool of its own, so blocking callbacks of one factory do not starve the common pool.
+ * Response bodies read on its threads block through {@link ForkJoinPool#managedBlock}, the pool starts a spare thread
+ * for every blocked one up to {@link Builder#withMaxBlockedThreads(int)} and counts them. Tasks above
+ * {@link Builder#withMaxQueuedTasks(int)} are handled by the {@link OverflowPolicy}
+ */
+public final class CallbackExecutor implements Executor, CallbackExecutorMXBean {
+    
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    
+    /**
+     * What happens to a task submitted while the queue is full
+     */
+    public enum OverflowPolicy {
+        
+        /**
+         * Run the task on the submitting thread, for callbacks it is the Http Client thread completing the call,
+         * which slows down completion of other calls
+         */
+        CALLER_RUNS,
+        
+        /**
+         * Throw {@link RejectedExecutionException}, calls whose callback is rejected fail with
+         * {@link CallRejectedException} on the completing thread
+         */
+        REJECT
+    }
+    
+    @NotNull
+    private final ForkJoinPool pool;
+    
+    private final int maxQueuedTasks;
+    
+    @NotNull
+    private final OverflowPolicy overflowPolicy;
+    
+    private final AtomicInteger queuedTasks = new AtomicInteger();
+    private final AtomicInteger blockedThreads = new AtomicInteger();
+    private final LongAdder blockingCalls = new LongAdder();
+    private final LongAdder saturatedBlockingCalls = new LongAdder();
+    private final LongAdder overflowedTasks = new LongAdder();
+    
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram taskDuration = new LatencyHistogram();
+    
+    private CallbackExecutor(@NotNull Builder builder) {
+        this.maxQueuedTasks = builder.maxQueuedTasks;
+        this.overflowPolicy = builder.overflowPolicy;
+        String namePrefix = builder.name + "-" + POOL_NUMBER.incrementAndGet() + "-";
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ForkJoinPool(builder.parallelism,
+                pool -> {
+                    Worker worker = new Worker(pool, this);
+                    worker.setName(namePrefix + threadNumber.incrementAndGet());
+                    worker.setDaemon(true);
+                    return worker;
+                },
+                null, true, 0, builder.parallelism + builder.maxBlockedThreads, 1,
+                pool -> {
+                    // no spare thread is left, the blocked thread is not compensated
+                    saturatedBlockingCalls.increment();
+                    return true;
+                },
+                60, TimeUnit.SECONDS);
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * @throws RejectedExecutionException if the queue is full and the policy is {@link OverflowPolicy#REJECT}
+     *                                    or the executor is shut down
+     */
+    @Override
+    public void execute(@NotNull Runnable command) {
+        if (queuedTasks.incrementAndGet() > maxQueuedTasks) {
+            queuedTasks.decrementAndGet();
+            overflowedTasks.increment();
+            if (overflowPolicy == OverflowPolicy.CALLER_RUNS && !pool.isShutdown()) {
+                command.run();
+                return;
+            }
+            throw new RejectedExecutionException("Callback executor queue is full");
+        }
+        try {
+            pool.execute(new Task(command, System.nanoTime()));
+        } catch (RejectedExecutionException e) {
+            queuedTasks.decrementAndGet();
+            throw e;
+        }
+    }
+    
+    /**
+     * Block the current thread, compensated by a spare thread if it is a thread of a ForkJoin pool
+     */
+    static void managedBlock(@NotNull ForkJoinPool.ManagedBlocker blocker) throws InterruptedException {
+        Thread thread = Thread.currentThread();
+        if (!(thread instanceof Worker)) {
+            ForkJoinPool.managedBlock(blocker);
+            return;
+        }
+        CallbackExecutor executor = ((Worker) thread).executor;
+        executor.blockingCalls.increment();
+        executor.blockedThreads.incrementAndGet();
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } finally {
+            executor.blockedThreads.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Stop accepting tasks, queued tasks are still run
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+    
+    public boolean isShutdown() {
+        return pool.isShutdown();
+    }
+    
+    public boolean awaitTermination(@NotNull Duration timeout) throws InterruptedException {
+        return pool.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Wait until no task is queued or running, so the metrics include every submitted task
+     *
+     * @return false if tasks are still queued or running after the timeout
+     */
+    public boolean awaitQuiescence(@NotNull Duration timeout) {
+        return pool.awaitQuiescence(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Tasks submitted and not started yet
+     */
+    @Override
+    public int getQueueDepth() {
+        return queuedTasks.get();
+    }
+    
+    /**
+     * Threads running tasks, including blocked ones
+     */
+    @Override
+    public int getActiveThreads() {
+        return pool.getActiveThreadCount();
+    }
+    
+    @Override
+    public int getPoolSize() {
+        return pool.getPoolSize();
+    }
+    
+    /**
+     * Threads blocked reading a response body right now
+     */
+    @Override
+    public int getBlockedThreads() {
+        return blockedThreads.get();
+    }
+    
+    /**
+     * Times a task blocked reading a response body, a growing number means callbacks block instead of reading
+     * buffered bodies
+     */
+    @Override
+    public long getBlockingCalls() {
+        return blockingCalls.sum();
+    }
+    
+    /**
+     * Blocking calls which found no spare thread left, the pool runs with fewer threads than its parallelism meanwhile
+     */
+    @Override
+    public long getSaturatedBlockingCalls() {
+        return saturatedBlockingCalls.sum();
+    }
+    
+    /**
+     * Tasks handled by the overflow policy
+     */
+    @Override
+    public long getOverflowedTasks() {
+        return overflowedTasks.sum();
+    }
+    
+    @Override
+    public long getCompletedTasks() {
+        return taskDuration.getCount();
+    }
+    
+    @Override
+    public double getQueueWaitMeanMillis() {
+        return queueWait.getMeanNanos() / NANOS_PER_MILLI;
+    }
+    
+    @Override
+    public double getQueueWaitP99Millis() {
+        return queueWait.getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+    
+    @Override
+    public double getQueueWaitMaxMillis() {
+        return queueWait.getMaxNanos() / NANOS_PER_MILLI;
+    }
+    
+    @Override
+    public double getTaskMeanMillis() {
+        return taskDuration.getMeanNanos() / NANOS_PER_MILLI;
+    }
+    
+    @Override
+    public double getTaskP99Millis() {
+        return taskDuration.getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+    
+    /**
+     * Register the executor in the platform MBean server
+     *
+     * @param name distinguishes executors of different call factories
+     */
+    @NotNull
+    public ObjectName registerMBean(@NotNull String name) throws JMException {
+        return Platform.registerMBean(this, "CallbackExecutor", name);
+    }
+    
+    private final class Task implements Runnable {
+        
+        @NotNull
+        private final Runnable command;
+        
+        private final long submittedNanos;
+        
+        private Task(@NotNull Runnable command, long submittedNanos) {
+            this.command = command;
+            this.submittedNanos = submittedNanos;
+        }
+        
+        @Override
+        public void run() {
+            queuedTasks.decrementAndGet();
+            long startNanos = System.nanoTime();
+            queueWait.record(startNanos - submittedNanos);
+            try {
+                command.run();
+            } finally {
+                taskDuration.record(System.nanoTime() - startNanos);
+            }
+        }
+    }
+    
+    private static final class Worker extends ForkJoinWorkerThread {
+        
+        @NotNull
+        private final CallbackExecutor executor;
+        
+        private Worker(@NotNull ForkJoinPool pool, @NotNull CallbackExecutor executor) {
+            super(pool);
+            this.executor = executor;
+        }
+    }
+    
+    public static class Builder {
+        
+        @NotNull
+        private String name = "retrofit-callback";
+        
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        
+        private int maxBlockedThreads = 64;
+        
+        private int maxQueuedTasks = 10_000;
+        
+        @NotNull
+        private OverflowPolicy overflowPolicy = OverflowPolicy.CALLER_RUNS;
+        
+        /**
+         * Prefix of thread names
+         */
+        public Builder withName(@NotNull String name) {
+            this.name = name;
+            return this;
+        }
+        
+        /**
+         * Threads running tasks while none of them blocks
+         * <p>
+         * The number of processors by default
+         */
+        public Builder withParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+        
+        /**
+         * Spare threads started for threads blocked reading response bodies, above the limit blocked threads are
+         * not compensated
+         * <p>
+         * 64 by default
+         */
+        public Builder withMaxBlockedThreads(int maxBlockedThreads) {
+            this.maxBlockedThreads = maxBlockedThreads;
+            return this;
+        }
+        
+        /**
+         * Tasks waiting for a thread, tasks above the limit are handled by the overflow policy
+         * <p>
+         * 10000 by default
+         */
+        public Builder withMaxQueuedTasks(int maxQueuedTasks) {
+            this.maxQueuedTasks = maxQueuedTasks;
+            return this;
+        }
+        
+        /**
+         * {@link OverflowPolicy#CALLER_RUNS} by default
+         */
+        public Builder withOverflowPolicy(@NotNull OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+        
+        public CallbackExecutor build() {
+            return new CallbackExecutor(this);
+        }
+    }
+}
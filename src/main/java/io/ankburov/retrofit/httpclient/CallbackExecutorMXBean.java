@@ -0,0 +1,33 @@
+package io.ankburov.retrofit.httpclient;
+
+/**
+ * JMX view of {@link CallbackExecutor}
+ */
+public interface CallbackExecutorMXBean {
+    
+    int getQueueDepth();
+    
+    int getActiveThreads();
+    
+    int getPoolSize();
+    
+    int getBlockedThreads();
+    
+    long getBlockingCalls();
+    
+    long getSaturatedBlockingCalls();
+    
+    long getOverflowedTasks();
+    
+    long getCompletedTasks();
+    
+    double getQueueWaitMeanMillis();
+    
+    double getQueueWaitP99Millis();
+    
+    double getQueueWaitMaxMillis();
+    
+    double getTaskMeanMillis();
+    
+    double getTaskP99Millis();
+}
@@ -0,0 +1,60 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.util.concurrent.Flow;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Subscriber notifying about cancellation of its subscription by the downstream
+ */
+class CancelAwareSubscriber<T> implements Flow.Subscriber<T> {
+    
+    @NotNull
+    private final Flow.Subscriber<? super T> downstream;
+    
+    @NotNull
+    private final Runnable onCancel;
+    
+    private volatile boolean subscribed;
+    
+    CancelAwareSubscriber(@NotNull Flow.Subscriber<? super T> downstream, @NotNull Runnable onCancel) {
+        this.downstream = downstream;
+        this.onCancel = onCancel;
+    }
+    
+    boolean isSubscribed() {
+        return subscribed;
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscribed = true;
+        downstream.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                subscription.request(n);
+            }
+            
+            @Override
+            public void cancel() {
+                subscription.cancel();
+                onCancel.run();
+            }
+        });
+    }
+    
+    @Override
+    public void onNext(T item) {
+        downstream.onNext(item);
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        downstream.onError(throwable);
+    }
+    
+    @Override
+    public void onComplete() {
+        downstream.onComplete();
+    }
+}
@@ -0,0 +1,80 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Response body notifying about its close with the number of bytes read by the consumer
+ */
+class CloseAwareResponseBody extends ResponseBody {
+    
+    @NotNull
+    private final ResponseBody delegate;
+    
+    @NotNull
+    private final LongConsumer onClose;
+    
+    @Nullable
+    private BufferedSource source;
+    
+    CloseAwareResponseBody(@NotNull ResponseBody delegate, @NotNull LongConsumer onClose) {
+        this.delegate = delegate;
+        this.onClose = onClose;
+    }
+    
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+    
+    @Override
+    public long contentLength() {
+        return delegate.contentLength();
+    }
+    
+    @NotNull
+    @Override
+    public BufferedSource source() {
+        if (source == null) {
+            source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                
+                private long bytesRead;
+                private boolean closed;
+                
+                @Override
+                public long read(@NotNull Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read != -1) {
+                        bytesRead += read;
+                    }
+                    return read;
+                }
+                
+                @Override
+                public void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        onClose.accept(bytesRead);
+                    }
+                }
+            });
+        }
+        return source;
+    }
+}
@@ -0,0 +1,132 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+import okhttp3.Call;
+import okhttp3.Response;
+
+/**
+ * Dispatches events to several listeners in the registration order
+ */
+class CompositeCallEventListener implements CallEventListener {
+    
+    private final CallEventListener[] listeners;
+    
+    private CompositeCallEventListener(CallEventListener[] listeners) {
+        this.listeners = listeners;
+    }
+    
+    static CallEventListener.Factory factoryOf(List<CallEventListener.Factory> factories) {
+        if (factories.isEmpty()) {
+            return CallEventListener.Factory.NONE;
+        }
+        if (factories.size() == 1) {
+            return factories.get(0);
+        }
+        List<CallEventListener.Factory> copy = List.copyOf(factories);
+        return call -> {
+            List<CallEventListener> listeners = new ArrayList<>(copy.size());
+            for (CallEventListener.Factory factory : copy) {
+                CallEventListener listener = factory.create(call);
+                if (listener != CallEventListener.NONE) {
+                    listeners.add(listener);
+                }
+            }
+            if (listeners.isEmpty()) {
+                return CallEventListener.NONE;
+            }
+            if (listeners.size() == 1) {
+                return listeners.get(0);
+            }
+            return new CompositeCallEventListener(listeners.toArray(new CallEventListener[0]));
+        };
+    }
+    
+    @Override
+    public void callStart(@NotNull Call call) {
+        for (CallEventListener listener : listeners) {
+            listener.callStart(call);
+        }
+    }
+    
+    @Override
+    public void requestIntercepted(@NotNull Call call, long durationNanos) {
+        for (CallEventListener listener : listeners) {
+            listener.requestIntercepted(call, durationNanos);
+        }
+    }
+    
+    @Override
+    public void requestBuilt(@NotNull Call call, long durationNanos) {
+        for (CallEventListener listener : listeners) {
+            listener.requestBuilt(call, durationNanos);
+        }
+    }
+    
+    @Override
+    public void responseHeadersReceived(@NotNull Call call, long durationNanos) {
+        for (CallEventListener listener : listeners) {
+            listener.responseHeadersReceived(call, durationNanos);
+        }
+    }
+    
+    @Override
+    public void callbackQueued(@NotNull Call call) {
+        for (CallEventListener listener : listeners) {
+            listener.callbackQueued(call);
+        }
+    }
+    
+    @Override
+    public void callbackDispatched(@NotNull Call call, long queuedNanos) {
+        for (CallEventListener listener : listeners) {
+            listener.callbackDispatched(call, queuedNanos);
+        }
+    }
+    
+    @Override
+    public void responseConverted(@NotNull Call call, long durationNanos) {
+        for (CallEventListener listener : listeners) {
+            listener.responseConverted(call, durationNanos);
+        }
+    }
+    
+    @Override
+    public void callRetried(@NotNull Call call, @NotNull Response response) {
+        for (CallEventListener listener : listeners) {
+            listener.callRetried(call, response);
+        }
+    }
+    
+    @Override
+    public void callEnd(@NotNull Call call, @NotNull Response response, long durationNanos) {
+        for (CallEventListener listener : listeners) {
+            listener.callEnd(call, response, durationNanos);
+        }
+    }
+    
+    @Override
+    public void callFailed(@NotNull Call call, @NotNull IOException exception, long durationNanos) {
+        for (CallEventListener listener : listeners) {
+            listener.callFailed(call, exception, durationNanos);
+        }
+    }
+    
+    @Override
+    public void callCanceled(@NotNull Call call, long durationNanos) {
+        for (CallEventListener listener : listeners) {
+            listener.callCanceled(call, durationNanos);
+        }
+    }
+    
+    @Override
+    public void responseBodyClosed(@NotNull Call call, long bytesRead, long durationNanos) {
+        for (CallEventListener listener : listeners) {
+            listener.responseBodyClosed(call, bytesRead, durationNanos);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package io.ankburov.retrofit.httpclient;
+
+import org.jetbrains.annotations.NotNull;
+
+import okio.BufferedSource;
+import okio.Source;
+
+/**
+ * Content coding of HTTP response bodies, like gzip or deflate
+ * <p>
+ * Implement the interface to plug in codings not supported by the JDK, like brotli or zstd, codings of request bodies
+ * implement {@link ContentEncoder}
+ */
+public interface ContentCodec {
+    
+    ContentCodec GZIP = new GzipContentCodec();
+    
+    ContentCodec DEFLATE = new DeflateContentCodec();
+    
+    /**
+     * @return Content-Encoding token of the coding, like {@code gzip}
+     */
+    @NotNull
+    String encoding();
+    
+    /**
+     * Wrap the encoded source, it must not be read before the returned source is, so malformed data fails the reads
+     * of the response body consumer. Stream based decoders are wrapped like
+     * {@code Okio.source(new BrotliInputStream(encoded.inputStream()))}
+     * <p>
+     * Closing the returned source closes the encoded one and releases the decoder
+     */
+    @NotNull
+    Source decode(@NotNull BufferedSource encoded);
+}
@@ -0,0 +1,30 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Content coding of HTTP request bodies, like gzip or deflate
+ * <p>
+ * A coding used only to decode responses implements {@link ContentCodec} alone
+ */
+public interface ContentEncoder {
+    
+    ContentEncoder GZIP = new GzipContentCodec();
+    
+    ContentEncoder DEFLATE = new DeflateContentCodec();
+    
+    /**
+     * @return Content-Encoding token of the coding, like {@code gzip}
+     */
+    @NotNull
+    String encoding();
+    
+    /**
+     * Wrap the stream to encode everything written to it, closing the returned stream finishes the encoding
+     */
+    @NotNull
+    OutputStream encode(@NotNull OutputStream decoded) throws IOException;
+}
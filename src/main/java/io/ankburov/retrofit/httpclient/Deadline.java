@@ -0,0 +1,126 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.time.Duration;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Point in time a call has to complete by, shared by all calls made on behalf of one parent request
+ * <p>
+ * A call takes the deadline from its {@code Deadline} request tag, like Retrofit {@code @Tag Deadline} parameter,
+ * or from the deadline attached to the calling thread. The call timeout is cut to the remaining time, and a call
+ * whose deadline has passed fails with {@link java.net.http.HttpTimeoutException} without being sent.
+ * Asynchronous callbacks run with the deadline of their call attached
+ * <pre>{@code
+ * Response<Second> second = Deadline.after(Duration.ofSeconds(2)).call(() -> {
+ *     api.first().execute();
+ *     return api.second().execute();
+ * });
+ * }</pre>
+ */
+public final class Deadline {
+    
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+    
+    private final long deadlineNanos;
+    
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+    
+    @NotNull
+    public static Deadline after(@NotNull Duration timeout) {
+        long now = System.nanoTime();
+        long timeoutNanos = timeout.toNanos();
+        // saturate instead of overflowing into the past
+        return new Deadline(now + timeoutNanos < now && timeoutNanos > 0 ? Long.MAX_VALUE : now + timeoutNanos);
+    }
+    
+    /**
+     * Deadline attached to the current thread
+     */
+    @Nullable
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+    
+    @NotNull
+    public Duration remaining() {
+        return Duration.ofNanos(remainingNanos());
+    }
+    
+    public boolean isExpired() {
+        return remainingNanos() == 0;
+    }
+    
+    /**
+     * Attach the deadline to the current thread until the scope is closed. An earlier deadline already attached
+     * stays in effect, a nested call can not outlive its parent
+     */
+    @NotNull
+    public Scope attach() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(previous != null && previous.isBefore(this) ? previous : this);
+        return new Scope(previous);
+    }
+    
+    /**
+     * Run the action with the deadline attached to the current thread, see {@link #attach()}
+     *
+     * @return result of the action
+     * @throws E thrown by the action
+     */
+    public <T, E extends Exception> T call(@NotNull Action<T, E> action) throws E {
+        Scope scope = attach();
+        try {
+            return action.run();
+        } finally {
+            scope.close();
+        }
+    }
+    
+    boolean isBefore(@NotNull Deadline other) {
+        return deadlineNanos - other.deadlineNanos < 0;
+    }
+    
+    long remainingNanos() {
+        return Math.max(0, deadlineNanos - System.nanoTime());
+    }
+    
+    @Override
+    public String toString() {
+        return "Deadline{remaining=" + remaining() + '}';
+    }
+    
+    /**
+     * Action run by {@link #call(Action)}, it may throw the checked exception of the calls it makes
+     */
+    @FunctionalInterface
+    public interface Action<T, E extends Exception> {
+        
+        T run() throws E;
+    }
+    
+    /**
+     * Attached deadline, {@link #close()} it in a {@code finally} block to restore the previous one
+     */
+    public static final class Scope implements AutoCloseable {
+        
+        @Nullable
+        private final Deadline previous;
+        
+        private Scope(@Nullable Deadline previous) {
+            this.previous = previous;
+        }
+        
+        @Override
+        public void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
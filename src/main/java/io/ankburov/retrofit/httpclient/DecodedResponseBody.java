@@ -0,0 +1,69 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Response body decoded while it is read, the decoded length is not known upfront
+ */
+class DecodedResponseBody extends ResponseBody {
+    
+    private static final long UNKNOWN_LENGTH = -1;
+    
+    @NotNull
+    private final ResponseBody delegate;
+    
+    @NotNull
+    private final ContentCodec codec;
+    
+    @Nullable
+    private BufferedSource source;
+    
+    DecodedResponseBody(@NotNull ResponseBody delegate, @NotNull ContentCodec codec) {
+        this.delegate = delegate;
+        this.codec = codec;
+    }
+    
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+    
+    @Override
+    public long contentLength() {
+        return UNKNOWN_LENGTH;
+    }
+    
+    @NotNull
+    @Override
+    public BufferedSource source() {
+        if (source == null) {
+            source = Okio.buffer(codec.decode(delegate.source()));
+        }
+        return source;
+    }
+    
+    /**
+     * A body closed unread is not decoded at all
+     */
+    @Override
+    public void close() {
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException ignored) {
+                // the same as closing quietly by ResponseBody
+            }
+        } else {
+            delegate.close();
+        }
+    }
+}
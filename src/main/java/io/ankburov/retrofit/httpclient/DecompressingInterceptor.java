@@ -0,0 +1,87 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Transparent response decompression, Java Http Client neither asks for compressed responses nor decodes them
+ * <p>
+ * Adds {@code Accept-Encoding} with the supported codings and decodes responses while their bodies are read.
+ * Decoded responses have neither {@code Content-Encoding} nor {@code Content-Length} headers. Requests with
+ * {@code Accept-Encoding} set by the caller are left untouched, like in OkHttp.
+ * <p>
+ * Register the interceptor last, then other interceptors see decoded responses
+ */
+public class DecompressingInterceptor implements Interceptor {
+    
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String CONTENT_LENGTH = "Content-Length";
+    
+    @NotNull
+    private final Map<String, ContentCodec> codecs = new LinkedHashMap<>();
+    
+    @NotNull
+    private final String acceptEncoding;
+    
+    /**
+     * Supports gzip and deflate
+     */
+    public DecompressingInterceptor() {
+        this(ContentCodec.GZIP, ContentCodec.DEFLATE);
+    }
+    
+    /**
+     * @param codecs in the order of preference
+     */
+    public DecompressingInterceptor(@NotNull ContentCodec... codecs) {
+        if (codecs.length == 0) {
+            throw new IllegalArgumentException("At least one codec is required");
+        }
+        for (ContentCodec codec : codecs) {
+            this.codecs.put(codec.encoding().toLowerCase(Locale.ROOT), codec);
+        }
+        this.acceptEncoding = String.join(", ", this.codecs.keySet());
+    }
+    
+    @Override
+    public Request onRequest(@NotNull Request request, @NotNull CallContext context) {
+        if (request.header(ACCEPT_ENCODING) != null) {
+            return request;
+        }
+        context.put(DecompressingInterceptor.class, this);
+        return request.newBuilder()
+                .header(ACCEPT_ENCODING, acceptEncoding)
+                .build();
+    }
+    
+    @Override
+    public Response onResult(@NotNull Request request, @Nullable Response response, @Nullable Throwable throwable,
+                             @NotNull CallContext context) {
+        if (response == null || context.get(DecompressingInterceptor.class) != this) {
+            return response;
+        }
+        String contentEncoding = response.header(CONTENT_ENCODING);
+        ResponseBody body = response.body();
+        if (contentEncoding == null || body == null || body.contentLength() == 0) {
+            return response;
+        }
+        ContentCodec codec = codecs.get(contentEncoding.trim().toLowerCase(Locale.ROOT));
+        if (codec == null) {
+            return response;
+        }
+        return response.newBuilder()
+                .removeHeader(CONTENT_ENCODING)
+                .removeHeader(CONTENT_LENGTH)
+                .body(new DecodedResponseBody(body, codec))
+                .build();
+    }
+}
@@ -2,36 +2,119 @@ package io.ankburov.retrofit.httpclient;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MultipartBody;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
 
 public class DefaultHttpRequestFactory implements HttpRequestFactory {
     
     private static final String CONTENT_TYPE = "Content-Type";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String EXPECT_CONTINUE = "100-continue";
+    
+    private final ConcurrentMap<Method, RequestTemplate> templates = new ConcurrentHashMap<>();
+    
+    @Nullable
+    private final ContentEncoder requestEncoder;
+    
+    private final long minCompressedLength;
+    
+    @NotNull
+    private final Predicate<Request> compressionCondition;
+    
+    @Nullable
+    private final ProtocolPolicy protocolPolicy;
+    
+    private final long minExpectContinueLength;
+    
+    public DefaultHttpRequestFactory() {
+        this(builder());
+    }
+    
+    protected DefaultHttpRequestFactory(@NotNull Builder builder) {
+        this.requestEncoder = builder.requestEncoder;
+        this.minCompressedLength = builder.minCompressedLength;
+        this.compressionCondition = builder.compressionCondition;
+        this.protocolPolicy = builder.protocolPolicy;
+        this.minExpectContinueLength = builder.minExpectContinueLength;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
     
     @Override
     public HttpRequest build(Request request, @Nullable Duration timeout) throws IOException {
+        Headers headers = request.headers();
         
-        HttpRequest.Builder builder = HttpRequest.newBuilder()
-                .uri(request.url().uri())
-                .method(request.method(), getBody(request));
+        HttpRequest.Builder builder = null;
+        int firstHeader = 0;
+        boolean methodPreset = false;
+        
+        RequestTemplate template = templateOf(request);
+        if (template != null) {
+            firstHeader = template.matchStaticHeaders(headers);
+            if (firstHeader >= 0) {
+                builder = template.newBuilder();
+                methodPreset = template.presetsMethod(request);
+            }
+        }
+        if (builder == null) {
+            builder = HttpRequest.newBuilder();
+            firstHeader = 0;
+        }
+        
+        ContentEncoder encoder = requestEncoderOf(request);
+        HttpRequest.BodyPublisher body = encoder == null ? getBody(request) : getEncodedBody(request, encoder);
+        
+        long declaredLength = addHeaders(builder, headers, firstHeader);
+        if (declaredLength > 0 && body.contentLength() < 0 && encoder == null) {
+            body = HttpRequest.BodyPublishers.fromPublisher(body, declaredLength);
+        }
+        if (expectsContinue(request)) {
+            builder.expectContinue(true);
+        }
+        builder.uri(toUri(request.url()));
+        if (!methodPreset) {
+            builder.method(request.method(), body);
+        }
         
-        request.headers().forEach(pair -> builder.header(pair.getFirst(), pair.getSecond()));
-    
         if (request.body() != null && request.body().contentType() != null) {
             builder.setHeader(CONTENT_TYPE, request.body().contentType().toString());
         }
-    
+        if (encoder != null) {
+            builder.setHeader(CONTENT_ENCODING, encoder.encoding());
+        }
+        
         if (timeout != null) {
             builder.timeout(timeout);
         }
         
+        if (protocolPolicy != null) {
+            HttpClient.Version version = protocolPolicy.versionOf(request.url());
+            if (version != null) {
+                builder.version(version);
+            }
+        }
+        
         return builder.build();
     }
     
@@ -41,6 +124,12 @@ public class DefaultHttpRequestFactory implements HttpRequestFactory {
         if (body == null) {
             return HttpRequest.BodyPublishers.noBody();
         }
+        if (body instanceof FileRequestBody) {
+            return HttpRequest.BodyPublishers.ofFile(((FileRequestBody) body).file());
+        }
+        if (body instanceof MultipartBody && MultipartBodyPublisher.hasFileParts((MultipartBody) body)) {
+            return MultipartBodyPublisher.of((MultipartBody) body);
+        }
         try (Buffer buffer = new Buffer()) {
             body.writeTo(buffer);
             try (InputStream bodyStream = buffer.inputStream()) {
@@ -48,4 +137,174 @@ public class DefaultHttpRequestFactory implements HttpRequestFactory {
             }
         }
     }
+    
+    /**
+     * Body is encoded while it is written, so only the encoded bytes are buffered and their length is sent.
+     * The body is published from the buffer, every subscription reads a clone sharing its segments
+     */
+    protected HttpRequest.BodyPublisher getEncodedBody(Request request, ContentEncoder encoder) throws IOException {
+        RequestBody body = request.body();
+        
+        Buffer buffer = new Buffer();
+        try (BufferedSink sink = Okio.buffer(Okio.sink(encoder.encode(buffer.outputStream())))) {
+            body.writeTo(sink);
+        }
+        return HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> buffer.clone().inputStream()), buffer.size());
+    }
+    
+    /**
+     * Headers are added in one batch, restricted ones are dropped or mapped to the builder options
+     *
+     * @return {@code Content-Length} set by the caller, -1 if there is none
+     */
+    private static long addHeaders(HttpRequest.Builder builder, Headers headers, int firstHeader) {
+        String[] namesAndValues = null;
+        int length = 0;
+        long declaredLength = -1;
+        for (int i = firstHeader; i < headers.size(); i++) {
+            String name = headers.name(i);
+            switch (HeaderKind.of(name)) {
+                case PASS:
+                    if (namesAndValues == null) {
+                        namesAndValues = new String[(headers.size() - i) * 2];
+                    }
+                    namesAndValues[length++] = name;
+                    namesAndValues[length++] = headers.value(i);
+                    break;
+                case EXPECT:
+                    if (EXPECT_CONTINUE.equalsIgnoreCase(headers.value(i))) {
+                        builder.expectContinue(true);
+                    }
+                    break;
+                case CONTENT_LENGTH:
+                    declaredLength = parseLength(headers.value(i));
+                    break;
+                default:
+                    // managed by Http Client
+                    break;
+            }
+        }
+        if (length > 0) {
+            builder.headers(length == namesAndValues.length ? namesAndValues : Arrays.copyOf(namesAndValues, length));
+        }
+        return declaredLength;
+    }
+    
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Bodies of unknown length are expected to be large, the same way as for compression
+     */
+    private boolean expectsContinue(Request request) throws IOException {
+        RequestBody body = request.body();
+        if (minExpectContinueLength < 0 || body == null) {
+            return false;
+        }
+        long contentLength = body.contentLength();
+        return contentLength < 0 || contentLength >= minExpectContinueLength;
+    }
+    
+    /**
+     * Bodies of unknown length are compressed regardless of the threshold, their size is known only after writing
+     */
+    @Nullable
+    private ContentEncoder requestEncoderOf(Request request) throws IOException {
+        RequestBody body = request.body();
+        if (requestEncoder == null || body == null || request.header(CONTENT_ENCODING) != null) {
+            return null;
+        }
+        long contentLength = body.contentLength();
+        if (contentLength >= 0 && contentLength < minCompressedLength) {
+            return null;
+        }
+        return compressionCondition.test(request) ? requestEncoder : null;
+    }
+    
+    /**
+     * {@link HttpUrl#uri()} rebuilds the url to re-encode characters forbidden in URIs,
+     * while most urls are valid URIs as is
+     */
+    private static URI toUri(HttpUrl url) {
+        try {
+            return URI.create(url.toString());
+        } catch (IllegalArgumentException e) {
+            return url.uri();
+        }
+    }
+    
+    @Nullable
+    private RequestTemplate templateOf(Request request) {
+        // without Retrofit the factory works but does not cache templates
+        return Platform.INVOCATION_SUPPORTED ? RequestTemplate.lookup(templates, request) : null;
+    }
+    
+    public static class Builder {
+        
+        @Nullable
+        private ContentEncoder requestEncoder;
+        
+        private long minCompressedLength;
+        
+        @NotNull
+        private Predicate<Request> compressionCondition = request -> true;
+        
+        @Nullable
+        private ProtocolPolicy protocolPolicy;
+        
+        private long minExpectContinueLength = -1;
+        
+        /**
+         * Compress request bodies of at least minContentLength bytes, make sure the servers accept the coding
+         * <p>
+         * Requests with {@code Content-Encoding} set by the caller are sent as is
+         */
+        public Builder withRequestCompression(@NotNull ContentEncoder encoder, long minContentLength) {
+            return withRequestCompression(encoder, minContentLength, request -> true);
+        }
+        
+        /**
+         * Compress request bodies of at least minContentLength bytes of the requests matching the condition,
+         * like {@code request -> request.url().host().equals("ingest.example.com")}
+         */
+        public Builder withRequestCompression(@NotNull ContentEncoder encoder, long minContentLength,
+                                              @NotNull Predicate<Request> condition) {
+            this.requestEncoder = encoder;
+            this.minCompressedLength = minContentLength;
+            this.compressionCondition = condition;
+            return this;
+        }
+        
+        /**
+         * Choose the Http version of requests by host
+         * <p>
+         * By default the version of the Http Client is used
+         */
+        public Builder withProtocolPolicy(@Nullable ProtocolPolicy protocolPolicy) {
+            this.protocolPolicy = protocolPolicy;
+            return this;
+        }
+        
+        /**
+         * Send {@code Expect: 100-continue} with bodies of at least minContentLength bytes, so a server rejecting
+         * the request, for example with 401 or 413, answers before the body is uploaded. Costs a round trip
+         * per request
+         * <p>
+         * By default only requests with the header set by the caller expect continue
+         */
+        public Builder withExpectContinue(long minContentLength) {
+            this.minExpectContinueLength = minContentLength;
+            return this;
+        }
+        
+        public DefaultHttpRequestFactory build() {
+            return new DefaultHttpRequestFactory(this);
+        }
+    }
 }
@@ -7,25 +7,37 @@ import okhttp3.Response;
 
 public class DefaultInterceptorChain implements InterceptorChain {
     
-    private List<Interceptor> interceptors;
+    private static final Interceptor[] NO_INTERCEPTORS = new Interceptor[0];
+    
+    private Interceptor[] interceptors = NO_INTERCEPTORS;
     
     @Override
     public void setInterceptors(List<Interceptor> interceptors) {
-        this.interceptors = List.copyOf(interceptors);
+        this.interceptors = interceptors.toArray(NO_INTERCEPTORS);
     }
     
     @Override
     public Request processOnRequest(Request request) {
+        return processOnRequest(request, new CallContext());
+    }
+    
+    @Override
+    public Response processOnResult(Request request, Response response, Throwable throwable) {
+        return processOnResult(request, response, throwable, new CallContext());
+    }
+    
+    @Override
+    public Request processOnRequest(Request request, CallContext context) {
         for (Interceptor interceptor : interceptors) {
-            request = interceptor.onRequest(request);
+            request = interceptor.onRequest(request, context);
         }
         return request;
     }
     
     @Override
-    public Response processOnResult(Request request, Response response, Throwable throwable) {
-        for (int i = interceptors.size() - 1; i >= 0; i--) {
-            response = interceptors.get(i).onResult(request, response, throwable);
+    public Response processOnResult(Request request, Response response, Throwable throwable, CallContext context) {
+        for (int i = interceptors.length - 1; i >= 0; i--) {
+            response = interceptors[i].onResult(request, response, throwable, context);
         }
         return response;
     }
@@ -1,12 +1,16 @@
 package io.ankburov.retrofit.httpclient;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.Protocol;
 import okhttp3.Request;
@@ -20,48 +24,118 @@ public class DefaultRetrofitResponseFactory implements RetrofitResponseFactory {
     private static final String EMPTY = "";
     private static final String CONTENT_TYPE = "Content-Type";
     private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    private static final String HEAD = "HEAD";
+    private static final int HTTP_NO_CONTENT = 204;
+    private static final int HTTP_NOT_MODIFIED = 304;
     private static final int UNKNOWN_LENGTH = -1;
     
+    private final MediaTypeCache mediaTypes = new MediaTypeCache();
+    
     @Override
     public Response build(Request retrofitRequest, HttpResponse<InputStream> response) {
-        Response.Builder responseBuilder = new Response.Builder()
-                .request(retrofitRequest)
-                .protocol(response.version() == HttpClient.Version.HTTP_1_1 ? Protocol.HTTP_1_1 : Protocol.HTTP_2)
-                .message(EMPTY)
-                .code(response.statusCode())
+        long contentLength = contentLength(retrofitRequest, response);
+        
+        return newBuilder(retrofitRequest, response)
                 .body(new ResponseBody() {
+                    
+                    private boolean contentTypeParsed;
+                    
+                    @Nullable
+                    private MediaType contentType;
+                    
                     @Override
                     public MediaType contentType() {
-                        return response.headers().firstValue(CONTENT_TYPE)
-                                .map(MediaType::parse)
-                                .orElse(null);
+                        if (!contentTypeParsed) {
+                            contentType = mediaTypes.parse(firstValue(response.headers(), CONTENT_TYPE));
+                            contentTypeParsed = true;
+                        }
+                        return contentType;
                     }
-                
+                    
                     @Override
                     public long contentLength() {
-                        long length = response.headers()
-                                .firstValueAsLong(CONTENT_LENGTH)
-                                .orElseGet(() -> {
-                                    try {
-                                        return response.body().available();
-                                    } catch (IOException e) {
-                                        return UNKNOWN_LENGTH;
-                                    }
-                                });
-    
-                        return length != 0 ? length : UNKNOWN_LENGTH;
+                        return contentLength;
                     }
-                
+                    
                     @Override
                     @NotNull
                     public BufferedSource source() {
-                        return Okio.buffer(Okio.source(response.body()));
+                        return Okio.buffer(Okio.source(new ManagedBlockingInputStream(response.body())));
                     }
-                });
+                })
+                .build();
+    }
+    
+    /**
+     * Response without a body, for responses whose body is consumed by the call itself, like streams
+     */
+    static Response head(Request retrofitRequest, HttpResponse<?> response) {
+        return newBuilder(retrofitRequest, response).build();
+    }
     
-        response.headers().map()
-                .forEach((key, values) -> values.forEach(value -> responseBuilder.addHeader(key, value)));
+    private static Response.Builder newBuilder(Request retrofitRequest, HttpResponse<?> response) {
+        return new Response.Builder()
+                .request(retrofitRequest)
+                .protocol(response.version() == HttpClient.Version.HTTP_1_1 ? Protocol.HTTP_1_1 : Protocol.HTTP_2)
+                .message(EMPTY)
+                .code(response.statusCode())
+                .headers(toHeaders(response.headers()));
+    }
+    
+    /**
+     * Converts all headers in one pass into an exactly sized array instead of adding them one by one
+     */
+    private static Headers toHeaders(HttpHeaders httpHeaders) {
+        Map<String, List<String>> headers = httpHeaders.map();
+        
+        int size = 0;
+        for (List<String> values : headers.values()) {
+            size += values.size();
+        }
+        
+        String[] namesAndValues = new String[size * 2];
+        int i = 0;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                namesAndValues[i++] = header.getKey();
+                namesAndValues[i++] = value;
+            }
+        }
+        return Headers.of(namesAndValues);
+    }
+    
+    /**
+     * Length known from the response head, the body stream itself is never probed
+     *
+     * @return exact length, 0 for responses without a body, -1 for streamed bodies of unknown length
+     */
+    private static long contentLength(Request request, HttpResponse<?> response) {
+        int statusCode = response.statusCode();
+        if (HEAD.equals(request.method()) || statusCode / 100 == 1 || statusCode == HTTP_NO_CONTENT
+                || statusCode == HTTP_NOT_MODIFIED) {
+            return 0;
+        }
+        
+        HttpHeaders headers = response.headers();
+        // a message with both headers is chunked, Content-Length is ignored
+        if (firstValue(headers, TRANSFER_ENCODING) != null) {
+            return UNKNOWN_LENGTH;
+        }
+        String length = firstValue(headers, CONTENT_LENGTH);
+        if (length == null) {
+            return UNKNOWN_LENGTH;
+        }
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return UNKNOWN_LENGTH;
+        }
+    }
     
-        return responseBuilder.build();
+    @Nullable
+    private static String firstValue(HttpHeaders headers, String name) {
+        List<String> values = headers.map().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
     }
 }
@@ -0,0 +1,89 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.InflaterSource;
+import okio.Source;
+import okio.Timeout;
+
+/**
+ * HTTP deflate is zlib wrapped, but some servers send raw deflate data, so the zlib header is detected.
+ * Encoded data is always zlib wrapped
+ */
+class DeflateContentCodec implements ContentCodec, ContentEncoder {
+    
+    private static final int ZLIB_HEADER_SIZE = 2;
+    private static final int ZLIB_DEFLATE_METHOD = 8;
+    
+    @NotNull
+    @Override
+    public String encoding() {
+        return "deflate";
+    }
+    
+    @NotNull
+    @Override
+    public Source decode(@NotNull BufferedSource encoded) {
+        return new DeflateSource(encoded);
+    }
+    
+    @NotNull
+    @Override
+    public OutputStream encode(@NotNull OutputStream decoded) {
+        return new DeflaterOutputStream(decoded);
+    }
+    
+    private static boolean isZlibHeader(Buffer header) {
+        int cmf = header.getByte(0) & 0xFF;
+        int flg = header.getByte(1) & 0xFF;
+        return (cmf & 0x0F) == ZLIB_DEFLATE_METHOD && (cmf * 256 + flg) % 31 == 0;
+    }
+    
+    /**
+     * Detects the header on the first read, the inflater is ended once the source is closed
+     */
+    private static class DeflateSource implements Source {
+        
+        @NotNull
+        private final BufferedSource encoded;
+        
+        @Nullable
+        private InflaterSource inflated;
+        
+        private DeflateSource(@NotNull BufferedSource encoded) {
+            this.encoded = encoded;
+        }
+        
+        @Override
+        public long read(@NotNull Buffer sink, long byteCount) throws IOException {
+            if (inflated == null) {
+                boolean zlib = encoded.request(ZLIB_HEADER_SIZE) && isZlibHeader(encoded.getBuffer());
+                inflated = new InflaterSource(encoded, new Inflater(!zlib));
+            }
+            return inflated.read(sink, byteCount);
+        }
+        
+        @NotNull
+        @Override
+        public Timeout timeout() {
+            return encoded.timeout();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (inflated != null) {
+                inflated.close();
+            } else {
+                encoded.close();
+            }
+        }
+    }
+}
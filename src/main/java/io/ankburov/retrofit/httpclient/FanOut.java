@@ -0,0 +1,167 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Sends Retrofit calls asynchronously, at most maxConcurrency at once, and joins their results in one future
+ * <p>
+ * No thread waits for the calls, the next call is enqueued by the callback of the previous one. The shared deadline
+ * is attached whenever a call is enqueued, so every call timeout is cut to the time remaining. Calls failing right
+ * in {@code enqueue} do not start the next ones recursively, they are started by the loop already running
+ */
+class FanOut<T> {
+    
+    @NotNull
+    private final List<Call<T>> calls;
+    
+    private final int maxConcurrency;
+    
+    private final boolean failFast;
+    
+    @Nullable
+    private final Deadline deadline;
+    
+    private final AtomicReferenceArray<FanOutResult<T>> results;
+    
+    private final AtomicInteger nextCall = new AtomicInteger();
+    
+    /**
+     * Calls to start, the thread incrementing it from zero starts them all
+     */
+    private final AtomicInteger pendingStarts = new AtomicInteger();
+    
+    private final AtomicInteger remainingCalls;
+    
+    private final CompletableFuture<List<FanOutResult<T>>> result = new CompletableFuture<>();
+    
+    @NotNull
+    private final ScheduledExecutorService scheduler;
+    
+    FanOut(@NotNull List<? extends Call<T>> calls, @NotNull FanOutOptions options,
+           @NotNull ScheduledExecutorService scheduler) {
+        this.calls = List.copyOf(calls);
+        this.maxConcurrency = options.getMaxConcurrency();
+        this.failFast = options.isFailFast();
+        this.deadline = options.getTimeout() != null ? Deadline.after(options.getTimeout()) : Deadline.current();
+        this.results = new AtomicReferenceArray<>(this.calls.size());
+        this.remainingCalls = new AtomicInteger(this.calls.size());
+        this.scheduler = scheduler;
+    }
+    
+    CompletableFuture<List<FanOutResult<T>>> start() {
+        if (calls.isEmpty()) {
+            result.complete(List.of());
+            return result;
+        }
+        result.whenComplete((results, throwable) -> cancelStarted());
+        if (deadline != null) {
+            ScheduledFuture<?> timer;
+            try {
+                timer = scheduler.schedule(this::deadlineExceeded, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(new CallRejectedException("Call factory is shut down"));
+                return result;
+            }
+            result.whenComplete((results, throwable) -> timer.cancel(false));
+        }
+        for (int i = 0; i < Math.min(maxConcurrency, calls.size()); i++) {
+            startNext();
+        }
+        return result;
+    }
+    
+    private void startNext() {
+        if (pendingStarts.getAndIncrement() > 0) {
+            return;
+        }
+        do {
+            startOne();
+        } while (pendingStarts.decrementAndGet() > 0);
+    }
+    
+    private void startOne() {
+        int index = nextCall.getAndIncrement();
+        if (index >= calls.size() || result.isDone()) {
+            return;
+        }
+        Deadline.Scope deadlineScope = deadline == null ? null : deadline.attach();
+        try {
+            calls.get(index).enqueue(new Callback<>() {
+                @Override
+                public void onResponse(@NotNull Call<T> call, @NotNull Response<T> response) {
+                    completed(index, FanOutResult.of(response));
+                }
+                
+                @Override
+                public void onFailure(@NotNull Call<T> call, @NotNull Throwable t) {
+                    completed(index, FanOutResult.failed(t));
+                }
+            });
+        } finally {
+            if (deadlineScope != null) {
+                deadlineScope.close();
+            }
+        }
+    }
+    
+    private void completed(int index, FanOutResult<T> callResult) {
+        results.set(index, callResult);
+        if (failFast && !callResult.isSuccessful()) {
+            Response<T> response = callResult.response();
+            result.completeExceptionally(response != null ? new HttpStatusException(response.code()) : callResult.failure());
+        } else if (remainingCalls.decrementAndGet() == 0) {
+            result.complete(collect());
+        } else {
+            startNext();
+        }
+    }
+    
+    private void deadlineExceeded() {
+        if (failFast) {
+            result.completeExceptionally(new HttpTimeoutException("Fan-out deadline exceeded"));
+        } else if (!result.isDone()) {
+            result.complete(collect());
+        }
+    }
+    
+    /**
+     * Calls without a result by now are reported as timed out
+     */
+    private List<FanOutResult<T>> collect() {
+        List<FanOutResult<T>> collected = new ArrayList<>(calls.size());
+        for (int i = 0; i < calls.size(); i++) {
+            FanOutResult<T> callResult = results.get(i);
+            collected.add(callResult != null ?
+                    callResult : FanOutResult.failed(new HttpTimeoutException("Fan-out deadline exceeded")));
+        }
+        return collected;
+    }
+    
+    /**
+     * Calls not started yet are never started, running ones are canceled
+     */
+    private void cancelStarted() {
+        int started = Math.min(nextCall.get(), calls.size());
+        for (int i = 0; i < started; i++) {
+            if (results.get(i) == null) {
+                calls.get(i).cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.time.Duration;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Options of {@link HttpClientRetrofitCallFactory#fanOut(java.util.List, FanOutOptions)}
+ */
+public final class FanOutOptions {
+    
+    private final int maxConcurrency;
+    
+    @Nullable
+    private final Duration timeout;
+    
+    private final boolean failFast;
+    
+    private FanOutOptions(@NotNull Builder builder) {
+        this.maxConcurrency = builder.maxConcurrency;
+        this.timeout = builder.timeout;
+        this.failFast = builder.failFast;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+    
+    @Nullable
+    public Duration getTimeout() {
+        return timeout;
+    }
+    
+    public boolean isFailFast() {
+        return failFast;
+    }
+    
+    public static class Builder {
+        
+        private int maxConcurrency = Integer.MAX_VALUE;
+        
+        @Nullable
+        private Duration timeout;
+        
+        private boolean failFast;
+        
+        /**
+         * Calls in flight at once, by default all calls are sent at once
+         */
+        public Builder withMaxConcurrency(int maxConcurrency) {
+            if (maxConcurrency <= 0) {
+                throw new IllegalArgumentException("Max concurrency must be positive: " + maxConcurrency);
+            }
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+        
+        /**
+         * One deadline for all calls, calls still running when it passes are canceled. By default the deadline
+         * attached to the calling thread is used, if any
+         */
+        public Builder withTimeout(@Nullable Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+        
+        /**
+         * Complete the fan-out exceptionally on the first failed call or non-2xx response and cancel the rest.
+         * By default all results are collected, including failures
+         */
+        public Builder withFailFast(boolean failFast) {
+            this.failFast = failFast;
+            return this;
+        }
+        
+        public FanOutOptions build() {
+            return new FanOutOptions(this);
+        }
+    }
+}
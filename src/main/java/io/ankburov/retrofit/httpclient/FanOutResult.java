@@ -0,0 +1,56 @@
+package io.ankburov.retrofit.httpclient;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import retrofit2.Response;
+
+/**
+ * Result of one call of a fan-out, either a response or a failure
+ */
+public final class FanOutResult<T> {
+    
+    @Nullable
+    private final Response<T> response;
+    
+    @Nullable
+    private final Throwable failure;
+    
+    private FanOutResult(@Nullable Response<T> response, @Nullable Throwable failure) {
+        this.response = response;
+        this.failure = failure;
+    }
+    
+    static <T> FanOutResult<T> of(@NotNull Response<T> response) {
+        return new FanOutResult<>(response, null);
+    }
+    
+    static <T> FanOutResult<T> failed(@NotNull Throwable failure) {
+        return new FanOutResult<>(null, failure);
+    }
+    
+    /**
+     * @return true if the call has a 2xx response
+     */
+    public boolean isSuccessful() {
+        return response != null && response.isSuccessful();
+    }
+    
+    /**
+     * @return response of any status, null if the call failed
+     */
+    @Nullable
+    public Response<T> response() {
+        return response;
+    }
+    
+    @Nullable
+    public Throwable failure() {
+        return failure;
+    }
+    
+    @Override
+    public String toString() {
+        return response != null ? "FanOutResult{code=" + response.code() + '}' : "FanOutResult{failure=" + failure + '}';
+    }
+}
@@ -0,0 +1,61 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Request body backed by a file
+ * <p>
+ * {@link DefaultHttpRequestFactory} sends such bodies, alone or as multipart parts, straight from the file instead
+ * of staging them on the heap, unlike {@code RequestBody.create(File)}
+ */
+public final class FileRequestBody extends RequestBody {
+    
+    @NotNull
+    private final Path file;
+    
+    @Nullable
+    private final MediaType contentType;
+    
+    private FileRequestBody(@NotNull Path file, @Nullable MediaType contentType) {
+        this.file = file;
+        this.contentType = contentType;
+    }
+    
+    public static FileRequestBody create(@NotNull Path file, @Nullable MediaType contentType) {
+        return new FileRequestBody(file, contentType);
+    }
+    
+    @NotNull
+    public Path file() {
+        return file;
+    }
+    
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+    
+    @Override
+    public long contentLength() throws IOException {
+        return Files.size(file);
+    }
+    
+    @Override
+    public void writeTo(@NotNull BufferedSink sink) throws IOException {
+        try (Source source = Okio.source(file)) {
+            sink.writeAll(source);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jetbrains.annotations.NotNull;
+
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.Source;
+
+class GzipContentCodec implements ContentCodec, ContentEncoder {
+    
+    @NotNull
+    @Override
+    public String encoding() {
+        return "gzip";
+    }
+    
+    @NotNull
+    @Override
+    public Source decode(@NotNull BufferedSource encoded) {
+        return new GzipSource(encoded);
+    }
+    
+    @NotNull
+    @Override
+    public OutputStream encode(@NotNull OutputStream decoded) throws IOException {
+        return new GZIPOutputStream(decoded);
+    }
+}
@@ -0,0 +1,73 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.net.http.HttpRequest;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * How a request header is passed to Http Client, which rejects headers it manages itself, like {@code Connection}
+ * or {@code Host}, while OkHttp accepts them
+ * <p>
+ * Header names are classified once by asking Http Client itself, so the set follows the JDK version and
+ * the {@code jdk.httpclient.allowRestrictedHeaders} property
+ */
+enum HeaderKind {
+    
+    /**
+     * Passed as is
+     */
+    PASS,
+    
+    /**
+     * {@code Expect}, mapped to {@link HttpRequest.Builder#expectContinue(boolean)}
+     */
+    EXPECT,
+    
+    /**
+     * {@code Content-Length}, mapped to the length of the body publisher
+     */
+    CONTENT_LENGTH,
+    
+    /**
+     * Restricted header managed by Http Client, dropped
+     */
+    RESTRICTED;
+    
+    /**
+     * Bounds the cache if header names are generated, names above the bound are classified on every request
+     */
+    private static final int MAX_CACHED_NAMES = 1024;
+    
+    private static final ConcurrentMap<String, HeaderKind> KINDS = new ConcurrentHashMap<>();
+    
+    @NotNull
+    static HeaderKind of(@NotNull String name) {
+        HeaderKind kind = KINDS.get(name);
+        if (kind == null) {
+            kind = classify(name);
+            if (KINDS.size() < MAX_CACHED_NAMES) {
+                KINDS.putIfAbsent(name, kind);
+            }
+        }
+        return kind;
+    }
+    
+    private static HeaderKind classify(String name) {
+        String lowerCaseName = name.toLowerCase(Locale.ROOT);
+        if ("expect".equals(lowerCaseName)) {
+            return EXPECT;
+        }
+        if ("content-length".equals(lowerCaseName)) {
+            return CONTENT_LENGTH;
+        }
+        try {
+            HttpRequest.newBuilder().header(name, "");
+            return PASS;
+        } catch (IllegalArgumentException e) {
+            return RESTRICTED;
+        }
+    }
+}
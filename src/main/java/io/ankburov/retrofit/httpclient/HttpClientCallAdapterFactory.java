@@ -0,0 +1,130 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.CallAdapter;
+import retrofit2.Retrofit;
+
+/**
+ * Retrofit call adapters for features of {@link HttpClientRetrofitCall}, requires
+ * {@link HttpClientRetrofitCallFactory} to be the Retrofit call factory
+ * <p>
+ * Supported return types:
+ * <ul>
+ *     <li>{@code Flow.Publisher<String>} - response lines, see {@link HttpClientRetrofitCall#streamLines()}</li>
+ *     <li>{@code Flow.Publisher<ServerSentEvent>} - see {@link HttpClientRetrofitCall#streamEvents()}</li>
+ *     <li>{@code CompletableFuture<Path>} - body written to the file passed as {@code @Tag Path} parameter,
+ *     see {@link HttpClientRetrofitCall#download(Path)}</li>
+ * </ul>
+ * Every subscription to a publisher sends a new request
+ */
+public final class HttpClientCallAdapterFactory extends CallAdapter.Factory {
+    
+    private HttpClientCallAdapterFactory() {
+    }
+    
+    public static HttpClientCallAdapterFactory create() {
+        return new HttpClientCallAdapterFactory();
+    }
+    
+    @Nullable
+    @Override
+    public CallAdapter<?, ?> get(@NotNull Type returnType, @NotNull Annotation[] annotations, @NotNull Retrofit retrofit) {
+        Class<?> rawType = getRawType(returnType);
+        if (rawType == CompletableFuture.class && returnType instanceof ParameterizedType
+                && getParameterUpperBound(0, (ParameterizedType) returnType) == Path.class) {
+            return new DownloadCallAdapter(callFactoryOf(retrofit));
+        }
+        if (rawType != Flow.Publisher.class) {
+            return null;
+        }
+        if (!(returnType instanceof ParameterizedType)) {
+            throw new IllegalArgumentException("Flow.Publisher return type must be parameterized as "
+                    + "Flow.Publisher<String> or Flow.Publisher<ServerSentEvent>");
+        }
+        HttpClientRetrofitCallFactory callFactory = callFactoryOf(retrofit);
+        
+        Type elementType = getParameterUpperBound(0, (ParameterizedType) returnType);
+        if (elementType == String.class) {
+            return new StreamCallAdapter<>(callFactory, HttpClientRetrofitCall::streamLines);
+        }
+        if (elementType == ServerSentEvent.class) {
+            return new StreamCallAdapter<>(callFactory, HttpClientRetrofitCall::streamEvents);
+        }
+        throw new IllegalArgumentException("Unsupported Flow.Publisher element type " + elementType);
+    }
+    
+    private static HttpClientRetrofitCallFactory callFactoryOf(Retrofit retrofit) {
+        if (!(retrofit.callFactory() instanceof HttpClientRetrofitCallFactory)) {
+            throw new IllegalArgumentException(HttpClientCallAdapterFactory.class.getSimpleName() + " requires "
+                    + HttpClientRetrofitCallFactory.class.getSimpleName() + " as the Retrofit call factory");
+        }
+        return (HttpClientRetrofitCallFactory) retrofit.callFactory();
+    }
+    
+    private static final class StreamCallAdapter<T> implements CallAdapter<ResponseBody, Flow.Publisher<T>> {
+        
+        @NotNull
+        private final HttpClientRetrofitCallFactory callFactory;
+        
+        @NotNull
+        private final Function<HttpClientRetrofitCall, Flow.Publisher<T>> stream;
+        
+        private StreamCallAdapter(@NotNull HttpClientRetrofitCallFactory callFactory,
+                                  @NotNull Function<HttpClientRetrofitCall, Flow.Publisher<T>> stream) {
+            this.callFactory = callFactory;
+            this.stream = stream;
+        }
+        
+        @NotNull
+        @Override
+        public Type responseType() {
+            return ResponseBody.class;
+        }
+        
+        @NotNull
+        @Override
+        public Flow.Publisher<T> adapt(@NotNull Call<ResponseBody> call) {
+            return subscriber -> stream.apply(callFactory.newCall(call.request())).subscribe(subscriber);
+        }
+    }
+    
+    private static final class DownloadCallAdapter implements CallAdapter<ResponseBody, CompletableFuture<Path>> {
+        
+        @NotNull
+        private final HttpClientRetrofitCallFactory callFactory;
+        
+        private DownloadCallAdapter(@NotNull HttpClientRetrofitCallFactory callFactory) {
+            this.callFactory = callFactory;
+        }
+        
+        @NotNull
+        @Override
+        public Type responseType() {
+            return ResponseBody.class;
+        }
+        
+        @NotNull
+        @Override
+        public CompletableFuture<Path> adapt(@NotNull Call<ResponseBody> call) {
+            okhttp3.Request request = call.request();
+            Path file = request.tag(Path.class);
+            if (file == null) {
+                return CompletableFuture.failedFuture(
+                        new IllegalArgumentException("Target file must be passed as @Tag Path parameter"));
+            }
+            return callFactory.newCall(request).download(file);
+        }
+    }
+}
@@ -2,21 +2,36 @@ package io.ankburov.retrofit.httpclient;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.MultipartBody;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
 import okio.Timeout;
 
 /**
@@ -24,38 +39,91 @@ import okio.Timeout;
  */
 public class HttpClientRetrofitCall implements Call {
     
+    private static final int NEW = 0;
+    private static final int STARTED = 1;
+    private static final int FINISHED = 2;
+    
+    private static final AtomicIntegerFieldUpdater<HttpClientRetrofitCall> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(HttpClientRetrofitCall.class, "state");
+    
+    private static final CompletableFuture<Void> NOT_SENT = CompletableFuture.completedFuture(null);
+    
     @NotNull
-    private final HttpClient httpClient;
+    private final HttpClientRetrofitCallFactory callFactory;
     
     @NotNull
     private final Request retrofitRequest;
     
     @NotNull
-    private final HttpRequestFactory requestFactory;
+    private final CallContext context = new CallContext();
     
     @NotNull
-    private final RetrofitResponseFactory responseFactory;
+    private final CallEventListener eventListener;
     
-    @NotNull
-    private final Executor asyncCallbackExecutor;
+    /**
+     * Phase timings are measured only if there is a listener to report them to
+     */
+    private final boolean timed;
     
-    @NotNull
-    private final InterceptorChain interceptorChain;
+    private long callStartNanos;
+    private long callbackQueuedNanos;
+    
+    /**
+     * Request body bytes reserved from {@link InFlightByteBudget} until the call is finished
+     */
+    private long reservedRequestBytes;
     
     @Nullable
-    private final Duration timeout;
+    private Deadline deadline;
+    
+    /**
+     * A call is retried at most once
+     */
+    private boolean retried;
+    
+    /**
+     * Guards the terminal event, only one of callEnd, callFailed and callCanceled is reported
+     */
+    private volatile int state = NEW;
     
     private volatile boolean isExecuted = false;
-    private volatile CompletableFuture<HttpResponse<InputStream>> asyncCall;
+    private volatile boolean isCanceled = false;
+    private volatile boolean isEnqueued = false;
+    private volatile boolean isBatched = false;
+    
+    /**
+     * Set on shutdown, a canceled call fails its callback like a canceled OkHttp call
+     */
+    private volatile boolean failsCanceled = false;
+    
+    @Nullable
+    private volatile Callback asyncCallback;
+    
+    /**
+     * Set once the callback of the current attempt runs, a callback rejected by the executor never runs
+     */
+    private volatile boolean callbackDispatched;
+    private volatile CompletableFuture<?> asyncCall;
     
+    /**
+     * @deprecated use {@link HttpClientRetrofitCallFactory#newCall(Request)}
+     */
+    @Deprecated
     public HttpClientRetrofitCall(@NotNull HttpClient httpClient, @NotNull Request retrofitRequest, @NotNull HttpRequestFactory requestFactory, @NotNull RetrofitResponseFactory responseFactory, @NotNull Executor asyncCallbackExecutor, InterceptorChain interceptorChain, @Nullable Duration timeout) {
-        this.httpClient = httpClient;
+        this(new HttpClientRetrofitCallFactory(HttpClientRetrofitCallFactory.builder(httpClient)
+                        .withRequestFactory(requestFactory)
+                        .withResponseFactory(responseFactory)
+                        .withAsyncCallbackExecutor(asyncCallbackExecutor)
+                        .withInterceptorChain(interceptorChain)
+                        .withTimeout(timeout)),
+                retrofitRequest);
+    }
+    
+    HttpClientRetrofitCall(@NotNull HttpClientRetrofitCallFactory callFactory, @NotNull Request retrofitRequest) {
+        this.callFactory = callFactory;
         this.retrofitRequest = retrofitRequest;
-        this.requestFactory = requestFactory;
-        this.responseFactory = responseFactory;
-        this.asyncCallbackExecutor = asyncCallbackExecutor;
-        this.interceptorChain = interceptorChain;
-        this.timeout = timeout;
+        this.eventListener = callFactory.eventListenerFactory.create(this);
+        this.timed = eventListener != CallEventListener.NONE;
     }
     
     @NotNull
@@ -64,73 +132,395 @@ public class HttpClientRetrofitCall implements Call {
         return retrofitRequest;
     }
     
+    /**
+     * Attributes set by interceptors during this call
+     */
+    @NotNull
+    public CallContext context() {
+        return context;
+    }
+    
+    /**
+     * Deadline of the call, known once the call is started
+     */
+    @Nullable
+    Deadline deadline() {
+        return deadline;
+    }
+    
     @NotNull
     @Override
     public Response execute() throws IOException {
-        Request decoratedRequest = interceptorChain.processOnRequest(request());
-        
-        HttpRequest httpRequest = requestFactory.build(decoratedRequest, timeout);
-        
-        HttpResponse<InputStream> httpResponse;
         try {
-            try {
-                httpResponse = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
-            } catch (Throwable t) {
-                interceptorChain.processOnResult(decoratedRequest, null, t);
-                throw t;
+            callStart();
+            
+            while (true) {
+                Request decoratedRequest = interceptRequest();
+                
+                HttpRequest httpRequest = buildRequest(decoratedRequest, true);
+                
+                HttpResponse<InputStream> httpResponse;
+                try {
+                    try {
+                        long sendStart = now();
+                        httpResponse = callFactory.httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+                        eventListener.responseHeadersReceived(this, now() - sendStart);
+                    } catch (Throwable t) {
+                        callFactory.interceptorChain.processOnResult(decoratedRequest, null, t, context);
+                        throw t;
+                    }
+                } catch (InterruptedException e) {
+                    throw new UnderlyingClientException(e);
+                }
+                isExecuted = true;
+                
+                Response response = convertResponse(decoratedRequest, httpResponse);
+                response = callFactory.interceptorChain.processOnResult(decoratedRequest, response, null, context);
+                if (!retriesUnauthorized(decoratedRequest, response)) {
+                    return callEnd(response);
+                }
             }
-        } catch (InterruptedException e) {
-            throw new UnderlyingClientException(e);
+        } catch (IOException e) {
+            callFailed(e);
+            throw e;
+        } catch (UncheckedIOException e) {
+            // like a token not fetched by the authenticator, reported to Retrofit as the checked cause
+            callFailed(e.getCause());
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            callFailed(new HttpFactoryException(e));
+            throw e;
         }
-        isExecuted = true;
-    
-        Response response = responseFactory.build(decoratedRequest, httpResponse);
-        return interceptorChain.processOnResult(decoratedRequest, response, null);
     }
     
     @Override
     public void enqueue(@NotNull Callback callback) {
-        Request decoratedRequest = interceptorChain.processOnRequest(request());
+        asyncCallback = callback;
+        try {
+            callStart();
+        } catch (CallRejectedException e) {
+            isExecuted = true;
+            callFailed(e);
+            callback.onFailure(this, e);
+            return;
+        }
+        enqueueStarted(callback);
+    }
+    
+    /**
+     * Enqueues the call sending a batch. It is not rejected after shutdown, the batched calls were accepted before
+     */
+    void enqueueBatch(@NotNull Callback callback) {
+        asyncCallback = callback;
+        callStarted();
+        callFactory.registerAccepted(this);
+        enqueueStarted(callback);
+    }
+    
+    private void enqueueStarted(Callback callback) {
+        CallBatcher batcher = callFactory.batcher;
+        if (batcher != null) {
+            isBatched = true;
+            if (batcher.offer(this, callback)) {
+                isExecuted = true;
+                return;
+            }
+            isBatched = false;
+        }
+        CallPriority priority = callFactory.prioritized ? CallPriority.of(retrofitRequest) : CallPriority.NORMAL;
+        isExecuted = true;
+        dispatchAuthenticated(callback, priority);
+    }
+    
+    /**
+     * Dispatches the call once the authenticator has a token for it, no thread waits for the token meanwhile
+     */
+    private void dispatchAuthenticated(Callback callback, CallPriority priority) {
+        CompletableFuture<AccessToken> token = awaitToken();
+        if (token == null) {
+            dispatch(callback, priority);
+            return;
+        }
+        // cancelable while waiting, the call sees the flag once dispatched
+        isEnqueued = true;
+        token.whenComplete((fetched, throwable) -> {
+            if (throwable == null || isCanceled) {
+                dispatch(callback, priority);
+            } else {
+                tokenFailed(callback, throwable);
+            }
+        });
+    }
+    
+    /**
+     * @return future of the token the call has to wait for, null if it can be sent right away
+     */
+    @Nullable
+    private CompletableFuture<AccessToken> awaitToken() {
+        TokenAuthenticator authenticator = callFactory.authenticator;
+        return authenticator == null ? null : authenticator.awaitToken(retrofitRequest);
+    }
+    
+    private void tokenFailed(Callback callback, Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+        IOException exception = cause instanceof TimeoutException ?
+                new IOException("Access token is not fetched in time", cause) :
+                new IOException("Access token is not available", cause);
+        callFactory.interceptorChain.processOnResult(retrofitRequest, null, exception, context);
+        callFailed(exception);
+        callback.onFailure(this, exception);
+    }
+    
+    private void dispatch(Callback callback, CallPriority priority) {
+        CallDispatcher dispatcher = callFactory.dispatcher;
+        if (dispatcher == null) {
+            send(callback, priority);
+        } else {
+            isEnqueued = true;
+            dispatcher.enqueue(this, priority, () -> send(callback, priority));
+        }
+    }
+    
+    /**
+     * @return future completed once the response headers are received or the call failed
+     */
+    private CompletableFuture<?> send(Callback callback, CallPriority priority) {
+        if (isCanceled) {
+            // canceled while queued by the dispatcher
+            callCanceled();
+            return NOT_SENT;
+        }
+        CompletableFuture<AccessToken> token = awaitToken();
+        if (token != null) {
+            // the token is refreshed while the call was queued, it keeps its slot until the token is fetched
+            return token.handle((fetched, throwable) -> throwable)
+                    .thenCompose(throwable -> {
+                        if (throwable == null || isCanceled) {
+                            return send(callback, priority).thenAccept(sent -> {});
+                        }
+                        tokenFailed(callback, throwable);
+                        return NOT_SENT;
+                    });
+        }
         try {
-            HttpRequest httpRequest = requestFactory.build(decoratedRequest, timeout);
+            return send(callback, priority, interceptRequest());
+        } catch (RuntimeException e) {
+            IOException exception = e instanceof UncheckedIOException ?
+                    ((UncheckedIOException) e).getCause() : new HttpFactoryException(e);
+            if (!callFailed(exception)) {
+                // thrown by the callback of a finished call
+                throw e;
+            }
+            callback.onFailure(this, exception);
+            return NOT_SENT;
+        }
+    }
+    
+    private CompletableFuture<?> send(Callback callback, CallPriority priority, Request decoratedRequest) {
+        try {
+            HttpRequest httpRequest = buildRequest(decoratedRequest, false);
+            
+            long sendStart = now();
+            CompletableFuture<HttpResponse<InputStream>> responseFuture = callFactory.httpClient
+                    .sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+            this.asyncCall = responseFuture;
+            CompletableFuture<?> sent = responseFuture;
+            if (timed) {
+                responseFuture = responseFuture.whenComplete((httpResponse, executionThrowable) -> {
+                    if (httpResponse != null) {
+                        eventListener.responseHeadersReceived(this, System.nanoTime() - sendStart);
+                    }
+                    callbackQueuedNanos = System.nanoTime();
+                    eventListener.callbackQueued(this);
+                });
+            }
             
-            this.asyncCall = httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream())
+            CompletableFuture<HttpResponse<InputStream>> received = responseFuture;
+            callbackDispatched = false;
+            responseFuture
                     .whenCompleteAsync((httpResponse, executionThrowable) -> {
+                        callbackDispatched = true;
+                        eventListener.callbackDispatched(this, now() - callbackQueuedNanos);
+                        if (isCanceled) {
+                            discard(httpResponse);
+                            callCanceled();
+                            return;
+                        }
+                        Deadline.Scope deadlineScope = deadline == null ? null : deadline.attach();
                         try {
                             if (httpResponse != null) {
-                                Response response = responseFactory.build(decoratedRequest, httpResponse);
+                                Response response = convertResponse(decoratedRequest, httpResponse);
                                 
-                                Response decoratedResponse = interceptorChain.processOnResult(decoratedRequest, response, null);
+                                Response decoratedResponse = callFactory.interceptorChain.processOnResult(decoratedRequest, response, null, context);
                                 
-                                callback.onResponse(this, decoratedResponse);
+                                if (retriesUnauthorized(decoratedRequest, decoratedResponse)) {
+                                    // the retry waits for the refreshed token and for a slot of the dispatcher again
+                                    dispatchAuthenticated(callback, priority);
+                                    return;
+                                }
+                                callback.onResponse(this, callEnd(decoratedResponse));
                             } else {
                                 executionThrowable = executionThrowable instanceof CompletionException ?
                                         executionThrowable.getCause() : executionThrowable;
                                 
-                                interceptorChain.processOnResult(decoratedRequest, null, executionThrowable);
-    
-                                if (executionThrowable instanceof IOException) {
-                                    callback.onFailure(this, (IOException) executionThrowable);
-                                } else {
-                                    callback.onFailure(this, new UnderlyingClientException(executionThrowable));
-                                }
+                                callFactory.interceptorChain.processOnResult(decoratedRequest, null, executionThrowable, context);
+                                
+                                IOException exception = executionThrowable instanceof IOException ?
+                                        (IOException) executionThrowable : new UnderlyingClientException(executionThrowable);
+                                callFailed(exception);
+                                callback.onFailure(this, exception);
                             }
                         } catch (Throwable t) {
-                            callback.onFailure(this, new HttpFactoryException(t));
+                            HttpFactoryException exception = new HttpFactoryException(t);
+                            callFailed(exception);
+                            callback.onFailure(this, exception);
+                        } finally {
+                            if (deadlineScope != null) {
+                                deadlineScope.close();
+                            }
                         }
-                    }, asyncCallbackExecutor);
+                    }, callFactory.callbackExecutor(priority))
+                    .whenComplete((ignored, throwable) -> {
+                        if (throwable != null && !callbackDispatched) {
+                            callbackRejected(callback, decoratedRequest, received);
+                        }
+                    });
+            return sent;
         } catch (IOException e) {
-            interceptorChain.processOnResult(decoratedRequest, null, e);
-            callback.onFailure(this, new HttpFactoryException(e));
+            callFactory.interceptorChain.processOnResult(decoratedRequest, null, e, context);
+            IOException exception = buildFailure(e);
+            callFailed(exception);
+            callback.onFailure(this, exception);
+            return NOT_SENT;
         }
-        isExecuted = true;
+    }
+    
+    /**
+     * The callback executor is saturated, the call fails on the completing thread instead of running the callback
+     */
+    private void callbackRejected(Callback callback, Request decoratedRequest,
+                                  CompletableFuture<HttpResponse<InputStream>> received) {
+        eventListener.callbackDispatched(this, now() - callbackQueuedNanos);
+        if (!received.isCompletedExceptionally()) {
+            discard(received.join());
+        }
+        CallRejectedException exception = new CallRejectedException("Callback executor is saturated");
+        callFactory.interceptorChain.processOnResult(decoratedRequest, null, exception, context);
+        callFailed(exception);
+        callback.onFailure(this, exception);
+    }
+    
+    /**
+     * Completes a call sent as a part of a batch, on the callback thread of the batch call
+     */
+    void batchCompleted(@NotNull Callback callback, @NotNull Response response) {
+        if (isCanceled) {
+            if (response.body() != null) {
+                response.close();
+            }
+            return;
+        }
+        try {
+            callback.onResponse(this, callEnd(response));
+        } catch (Throwable t) {
+            HttpFactoryException exception = new HttpFactoryException(t);
+            callFailed(exception);
+            callback.onFailure(this, exception);
+        }
+    }
+    
+    void batchFailed(@NotNull Callback callback, @NotNull IOException exception) {
+        if (isCanceled) {
+            return;
+        }
+        callFailed(exception);
+        callback.onFailure(this, exception);
+    }
+    
+    /**
+     * Streams the response body line by line, for example NDJSON. Lines are read from the connection only as they
+     * are requested by the subscriber
+     * <p>
+     * The call is sent on subscription, a call can be streamed once. Signals are delivered on Http Client threads,
+     * do not block them. A non-2xx response fails the stream with {@link HttpStatusException}. Result interceptors
+     * and {@link CallEventListener#callEnd} see the response without a body once the stream is completed
+     */
+    @NotNull
+    public Flow.Publisher<String> streamLines() {
+        return subscriber -> stream(subscriber, HttpResponse.BodySubscribers::fromLineSubscriber);
+    }
+    
+    /**
+     * Streams {@code text/event-stream} response as server-sent events, the same way as {@link #streamLines()}
+     */
+    @NotNull
+    public Flow.Publisher<ServerSentEvent> streamEvents() {
+        return subscriber -> stream(subscriber,
+                events -> HttpResponse.BodySubscribers.fromLineSubscriber(new ServerSentEventParser(events)));
+    }
+    
+    /**
+     * Writes the response body straight to the file, the body is not copied through the heap. An existing file
+     * is overwritten
+     * <p>
+     * The returned future is completed on the async callback executor, or on the completing thread if the executor
+     * is saturated, and fails with {@link HttpStatusException} if the response is not successful, the file is not
+     * touched in that case. A partially written file is deleted if the download fails. Canceling the future cancels
+     * the call
+     */
+    @NotNull
+    public CompletableFuture<Path> download(@NotNull Path file) {
+        AtomicBoolean written = new AtomicBoolean();
+        CompletableFuture<Path> downloaded = sendHandled(() -> {
+            written.set(true);
+            return HttpResponse.BodySubscribers.ofFile(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }).whenCompleteAsync((path, throwable) -> {
+            if (throwable != null && written.get()) {
+                deletePartial(file);
+            }
+        }, callFactory.completionExecutor());
+        downloaded.whenComplete((path, throwable) -> {
+            if (downloaded.isCancelled()) {
+                cancel();
+            }
+        });
+        return downloaded;
     }
     
     @Override
     public void cancel() {
-        if (asyncCall != null) {
-            asyncCall.cancel(true);
+        CompletableFuture<?> call = asyncCall;
+        if (call != null) {
+            isCanceled = true;
+            call.cancel(true);
+            callCanceled();
+        } else if (isEnqueued) {
+            // not sent yet, a call taken by the dispatcher or waiting for a token sees the flag before sending
+            isCanceled = true;
+            CallDispatcher dispatcher = callFactory.dispatcher;
+            if (dispatcher != null && dispatcher.remove(this)) {
+                callCanceled();
+            }
+        } else if (isBatched) {
+            // the batch is sent anyway, the response of this call is discarded
+            isCanceled = true;
+            callCanceled();
+        }
+    }
+    
+    /**
+     * Cancel an asynchronous call on shutdown, its callback fails with {@code IOException("Canceled")}
+     *
+     * @return false if the call is synchronous or could not be canceled
+     */
+    boolean cancelOnShutdown() {
+        if (asyncCallback == null && asyncCall == null) {
+            return false;
         }
+        failsCanceled = true;
+        cancel();
+        return isCanceled;
     }
     
     @Override
@@ -140,7 +530,7 @@ public class HttpClientRetrofitCall implements Call {
     
     @Override
     public boolean isCanceled() {
-        return asyncCall != null && asyncCall.isCancelled();
+        return isCanceled;
     }
     
     @NotNull
@@ -152,9 +542,338 @@ public class HttpClientRetrofitCall implements Call {
     @NotNull
     @Override
     public Call clone() { //NOSONAR
-        HttpClientRetrofitCall call = new HttpClientRetrofitCall(httpClient, request(), requestFactory, responseFactory, asyncCallbackExecutor, interceptorChain, timeout);
+        HttpClientRetrofitCall call = new HttpClientRetrofitCall(callFactory, request());
         call.isExecuted = isExecuted;
+        call.isCanceled = isCanceled;
         call.asyncCall = asyncCall;
         return call;
     }
+    
+    private long now() {
+        return timed ? System.nanoTime() : 0L;
+    }
+    
+    /**
+     * @throws CallRejectedException if the factory is shut down, the call is started and has to be failed
+     */
+    private void callStart() throws CallRejectedException {
+        callStarted();
+        if (!callFactory.register(this)) {
+            throw new CallRejectedException("Call factory is shut down");
+        }
+    }
+    
+    private void callStarted() {
+        state = STARTED;
+        callStartNanos = now();
+        Deadline tagged = retrofitRequest.tag(Deadline.class);
+        deadline = tagged != null ? tagged : Deadline.current();
+        eventListener.callStart(this);
+    }
+    
+    private Request interceptRequest() {
+        long start = now();
+        Request decoratedRequest = callFactory.interceptorChain.processOnRequest(request(), context);
+        eventListener.requestIntercepted(this, now() - start);
+        return decoratedRequest;
+    }
+    
+    /**
+     * @param mayWait whether the calling thread may wait for the byte budget, only synchronous calls do
+     */
+    private HttpRequest buildRequest(Request decoratedRequest, boolean mayWait) throws IOException {
+        Duration timeout = callFactory.timeout;
+        if (deadline != null) {
+            timeout = deadlineTimeout(deadline, timeout);
+            if (callFactory.deadlineHeader != null) {
+                decoratedRequest = decoratedRequest.newBuilder()
+                        .header(callFactory.deadlineHeader, String.valueOf(timeout.toMillis()))
+                        .build();
+            }
+        }
+        decoratedRequest = reserveRequestBytes(decoratedRequest, mayWait);
+        long start = now();
+        HttpRequest httpRequest = callFactory.requestFactory.build(decoratedRequest, timeout);
+        eventListener.requestBuilt(this, now() - start);
+        return httpRequest;
+    }
+    
+    /**
+     * A call authenticated by the factory authenticator is retried once if its token was rejected, unless its body
+     * can not be written again
+     *
+     * @return true if the response is closed and the call has to be sent again
+     */
+    private boolean retriesUnauthorized(Request decoratedRequest, @Nullable Response response) {
+        TokenAuthenticator authenticator = callFactory.authenticator;
+        if (authenticator == null || retried || response == null || response.code() != 401
+                || !authenticator.authenticated(context)) {
+            return false;
+        }
+        RequestBody body = decoratedRequest.body();
+        if (body != null && body.isOneShot()) {
+            return false;
+        }
+        retried = true;
+        authenticator.tokenRejected(decoratedRequest);
+        if (response.body() != null) {
+            response.close();
+        }
+        releaseRequestBytes();
+        eventListener.callRetried(this, response);
+        return true;
+    }
+    
+    private Response convertResponse(Request decoratedRequest, HttpResponse<InputStream> httpResponse) {
+        long start = now();
+        Response response = callFactory.responseFactory.build(decoratedRequest, httpResponse);
+        eventListener.responseConverted(this, now() - start);
+        return response;
+    }
+    
+    private Response callEnd(Response response) {
+        if (!STATE.compareAndSet(this, STARTED, FINISHED)) {
+            return response;
+        }
+        callFinished();
+        if (response == null) {
+            return response;
+        }
+        long callEndNanos = now();
+        eventListener.callEnd(this, response, callEndNanos - callStartNanos);
+        
+        ResponseBody body = response.body();
+        long responseBytes = reserveResponseBytes(body);
+        if (body == null || !timed && responseBytes == 0) {
+            return response;
+        }
+        return response.newBuilder()
+                .body(new CloseAwareResponseBody(body, bytesRead -> {
+                    releaseBytes(responseBytes);
+                    eventListener.responseBodyClosed(this, bytesRead, now() - callEndNanos);
+                }))
+                .build();
+    }
+    
+    /**
+     * A callback failing after {@link #callEnd(Response)} is not a call failure
+     *
+     * @return false if the call is already finished
+     */
+    private boolean callFailed(IOException exception) {
+        if (STATE.compareAndSet(this, STARTED, FINISHED)) {
+            callFinished();
+            eventListener.callFailed(this, exception, now() - callStartNanos);
+            return true;
+        }
+        return false;
+    }
+    
+    private <T> void stream(Flow.Subscriber<? super T> subscriber,
+                            Function<Flow.Subscriber<? super T>, HttpResponse.BodySubscriber<Void>> bodySubscriberFactory) {
+        CancelAwareSubscriber<T> streamSubscriber = new CancelAwareSubscriber<>(subscriber, this::streamCanceled);
+        
+        sendHandled(() -> bodySubscriberFactory.apply(streamSubscriber))
+                .whenComplete((ignored, throwable) -> {
+                    // once subscribed, the body subscriber is completed by Http Client itself
+                    if (throwable != null && !streamSubscriber.isSubscribed()) {
+                        failStream(subscriber, throwable);
+                    }
+                });
+    }
+    
+    /**
+     * Sends the call with a body subscriber consuming bodies of 2xx responses, bodies of other responses are discarded
+     *
+     * @return future of the body, failed with {@link HttpStatusException} if the response is not successful
+     */
+    private <T> CompletableFuture<T> sendHandled(Supplier<HttpResponse.BodySubscriber<T>> bodySubscriber) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (state != NEW) {
+            result.completeExceptionally(new IllegalStateException("Already executed"));
+            return result;
+        }
+        try {
+            callStart();
+        } catch (CallRejectedException e) {
+            callFailed(e);
+            result.completeExceptionally(e);
+            return result;
+        }
+        Request decoratedRequest = interceptRequest();
+        HttpRequest httpRequest;
+        try {
+            httpRequest = buildRequest(decoratedRequest, false);
+        } catch (IOException e) {
+            callFactory.interceptorChain.processOnResult(decoratedRequest, null, e, context);
+            IOException exception = buildFailure(e);
+            callFailed(exception);
+            result.completeExceptionally(exception);
+            return result;
+        }
+        
+        long sendStart = now();
+        CompletableFuture<HttpResponse<T>> responseFuture = callFactory.httpClient.sendAsync(httpRequest, responseInfo -> {
+            eventListener.responseHeadersReceived(this, now() - sendStart);
+            return isSuccessful(responseInfo.statusCode()) ?
+                    bodySubscriber.get() : HttpResponse.BodySubscribers.replacing(null);
+        });
+        this.asyncCall = responseFuture;
+        isExecuted = true;
+        
+        responseFuture.whenComplete((httpResponse, executionThrowable) -> {
+            try {
+                if (httpResponse != null) {
+                    Response response = DefaultRetrofitResponseFactory.head(decoratedRequest, httpResponse);
+                    callEnd(callFactory.interceptorChain.processOnResult(decoratedRequest, response, null, context));
+                    if (isSuccessful(httpResponse.statusCode())) {
+                        result.complete(httpResponse.body());
+                    } else {
+                        result.completeExceptionally(new HttpStatusException(httpResponse.statusCode()));
+                    }
+                } else {
+                    executionThrowable = executionThrowable instanceof CompletionException ?
+                            executionThrowable.getCause() : executionThrowable;
+                    
+                    callFactory.interceptorChain.processOnResult(decoratedRequest, null, executionThrowable, context);
+                    
+                    IOException exception = executionThrowable instanceof IOException ?
+                            (IOException) executionThrowable : new UnderlyingClientException(executionThrowable);
+                    callFailed(exception);
+                    result.completeExceptionally(exception);
+                }
+            } catch (Throwable t) {
+                HttpFactoryException exception = new HttpFactoryException(t);
+                callFailed(exception);
+                result.completeExceptionally(exception);
+            }
+        });
+        return result;
+    }
+    
+    private void streamCanceled() {
+        isCanceled = true;
+        callCanceled();
+    }
+    
+    private void callCanceled() {
+        if (STATE.compareAndSet(this, STARTED, FINISHED)) {
+            callFinished();
+            eventListener.callCanceled(this, now() - callStartNanos);
+            Callback callback = asyncCallback;
+            if (failsCanceled && callback != null) {
+                callback.onFailure(this, new IOException("Canceled"));
+            }
+        }
+    }
+    
+    /**
+     * @return the call timeout cut to the time remaining until the deadline
+     */
+    private static Duration deadlineTimeout(Deadline deadline, @Nullable Duration timeout) throws HttpTimeoutException {
+        long remainingNanos = deadline.remainingNanos();
+        if (remainingNanos == 0) {
+            throw new HttpTimeoutException("Deadline exceeded before the call was sent");
+        }
+        return timeout == null || timeout.toNanos() > remainingNanos ? Duration.ofNanos(remainingNanos) : timeout;
+    }
+    
+    /**
+     * Failures of admission and deadline checks are reported as is, other failures are request factory failures
+     */
+    private static IOException buildFailure(IOException e) {
+        return e instanceof CallRejectedException || e instanceof HttpTimeoutException ? e : new HttpFactoryException(e);
+    }
+    
+    /**
+     * Buffered request bodies are admitted by the byte budget, file bodies are not buffered. A body of unknown length
+     * is buffered first to be admitted by its actual size
+     *
+     * @return request with the buffered body if it was buffered
+     */
+    private Request reserveRequestBytes(Request decoratedRequest, boolean mayWait) throws IOException {
+        InFlightByteBudget byteBudget = callFactory.byteBudget;
+        RequestBody body = decoratedRequest.body();
+        if (byteBudget == null || body == null || body instanceof FileRequestBody
+                || body instanceof MultipartBody && MultipartBodyPublisher.hasFileParts((MultipartBody) body)) {
+            return decoratedRequest;
+        }
+        long bytes = body.contentLength();
+        if (bytes < 0) {
+            Buffer buffer = new Buffer();
+            body.writeTo(buffer);
+            bytes = buffer.size();
+            body = RequestBody.create(buffer.readByteString(), body.contentType());
+            decoratedRequest = decoratedRequest.newBuilder()
+                    .method(decoratedRequest.method(), body)
+                    .build();
+        }
+        byteBudget.reserve(bytes, mayWait);
+        reservedRequestBytes = bytes;
+        return decoratedRequest;
+    }
+    
+    /**
+     * Releases resources held by the call once its terminal event is reported
+     */
+    private void callFinished() {
+        releaseRequestBytes();
+        callFactory.deregister(this);
+    }
+    
+    private void releaseRequestBytes() {
+        releaseBytes(reservedRequestBytes);
+        reservedRequestBytes = 0;
+    }
+    
+    private long reserveResponseBytes(@Nullable ResponseBody body) {
+        InFlightByteBudget byteBudget = callFactory.byteBudget;
+        if (byteBudget == null || body == null || body.contentLength() <= 0) {
+            return 0;
+        }
+        byteBudget.forceReserve(body.contentLength());
+        return body.contentLength();
+    }
+    
+    private void releaseBytes(long bytes) {
+        InFlightByteBudget byteBudget = callFactory.byteBudget;
+        if (byteBudget != null) {
+            byteBudget.release(bytes);
+        }
+    }
+    
+    private static boolean isSuccessful(int statusCode) {
+        return statusCode / 100 == 2;
+    }
+    
+    private static void failStream(Flow.Subscriber<?> subscriber, Throwable throwable) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+            
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(throwable);
+    }
+    
+    private static void deletePartial(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // the download has failed anyway, its failure is reported instead
+        }
+    }
+    
+    private static void discard(@Nullable HttpResponse<InputStream> httpResponse) {
+        if (httpResponse != null) {
+            try {
+                httpResponse.body().close();
+            } catch (IOException ignored) {
+                // nobody is interested in the response anymore
+            }
+        }
+    }
 }
@@ -4,8 +4,17 @@ import java.net.http.HttpClient;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -15,37 +24,283 @@ import okhttp3.Request;
 
 public class HttpClientRetrofitCallFactory implements Call.Factory {
     
+    private static final AtomicInteger SCHEDULER_NUMBER = new AtomicInteger();
+    
+    @NotNull
+    final HttpClient httpClient;
+    
     @NotNull
-    private final HttpClient httpClient;
+    final HttpRequestFactory requestFactory;
     
     @NotNull
-    private final HttpRequestFactory requestFactory;
+    final RetrofitResponseFactory responseFactory;
     
     @NotNull
-    private final RetrofitResponseFactory responseFactory;
+    final Executor asyncCallbackExecutor;
     
     @NotNull
-    private final Executor asyncCallbackExecutor;
+    final InterceptorChain interceptorChain;
+    
+    @Nullable
+    final Duration timeout;
     
     @NotNull
-    private final InterceptorChain interceptorChain;
+    final CallEventListener.Factory eventListenerFactory;
+    
+    @Nullable
+    final InFlightByteBudget byteBudget;
+    
+    @Nullable
+    final CallDispatcher dispatcher;
     
     @Nullable
-    private final Duration timeout;
+    final String deadlineHeader;
     
-    private HttpClientRetrofitCallFactory(@NotNull HttpClient httpClient, @NotNull HttpRequestFactory requestFactory, @NotNull RetrofitResponseFactory responseFactory, @NotNull Executor asyncCallbackExecutor, InterceptorChain interceptorChain, @Nullable Duration timeout) {
-        this.httpClient = httpClient;
-        this.requestFactory = requestFactory;
-        this.responseFactory = responseFactory;
-        this.asyncCallbackExecutor = asyncCallbackExecutor;
-        this.interceptorChain = interceptorChain;
-        this.timeout = timeout;
+    @Nullable
+    final TokenAuthenticator authenticator;
+    
+    @Nullable
+    final CallBatcher batcher;
+    
+    /**
+     * Call priorities are resolved only if something honors them
+     */
+    final boolean prioritized;
+    
+    /**
+     * Timers of the factory, like batch windows and fan-out deadlines, its thread exits once idle
+     */
+    @NotNull
+    final ScheduledExecutorService scheduler;
+    
+    @NotNull
+    private final Executor callerRunsOnRejection;
+    
+    @NotNull
+    private final Executor completionExecutor;
+    
+    /**
+     * Rejections of a saturated executor fail the call, otherwise rejected callbacks are run by the completing thread
+     */
+    @Nullable
+    private final CallbackExecutor saturationAwareExecutor;
+    
+    /**
+     * Calls started and not finished yet, a call is finished once its terminal event is reported
+     */
+    private final Set<HttpClientRetrofitCall> inFlightCalls = ConcurrentHashMap.newKeySet();
+    
+    private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+    
+    private volatile boolean shutdown;
+    
+    HttpClientRetrofitCallFactory(@NotNull Builder builder) {
+        this.httpClient = builder.httpClient;
+        this.requestFactory = builder.requestFactory;
+        this.responseFactory = builder.responseFactory;
+        this.asyncCallbackExecutor = builder.asyncCallbackExecutor != null ?
+                builder.asyncCallbackExecutor : CallbackExecutor.builder().build();
+        this.saturationAwareExecutor = asyncCallbackExecutor instanceof CallbackExecutor ?
+                (CallbackExecutor) asyncCallbackExecutor : null;
+        this.interceptorChain = builder.interceptorChain;
+        this.timeout = builder.timeout;
+        this.eventListenerFactory = CompositeCallEventListener.factoryOf(builder.eventListenerFactories);
+        this.byteBudget = builder.byteBudget;
+        this.completionExecutor = this::runOnCompletion;
+        this.dispatcher = builder.maxConcurrentCalls > 0 ?
+                new CallDispatcher(builder.maxConcurrentCalls, completionExecutor) : null;
+        this.deadlineHeader = builder.deadlineHeader;
+        this.authenticator = builder.authenticator;
+        this.scheduler = newScheduler();
+        this.batcher = builder.batchCodec != null ? new CallBatcher(this, builder.batchCodec) : null;
+        this.prioritized = dispatcher != null || asyncCallbackExecutor instanceof PriorityCallbackExecutor;
+        this.callerRunsOnRejection = this::callerRunsOnRejection;
+        if (builder.asyncCallbackExecutor == null) {
+            // the own executor is not shared, it is not needed once the calls are finished
+            CallbackExecutor ownExecutor = (CallbackExecutor) asyncCallbackExecutor;
+            terminated.thenRun(ownExecutor::shutdown);
+        }
+        terminated.thenRun(scheduler::shutdown);
     }
     
     @NotNull
     @Override
-    public Call newCall(@NotNull Request request) {
-        return new HttpClientRetrofitCall(httpClient, request, requestFactory, responseFactory, asyncCallbackExecutor, interceptorChain, timeout);
+    public HttpClientRetrofitCall newCall(@NotNull Request request) {
+        return new HttpClientRetrofitCall(this, request);
+    }
+    
+    /**
+     * Executor running async callbacks, an instrumented {@link CallbackExecutor} unless another one is specified
+     */
+    @NotNull
+    public Executor getAsyncCallbackExecutor() {
+        return asyncCallbackExecutor;
+    }
+    
+    /**
+     * Asynchronous calls sent and waiting for response headers, zero if the number is not limited
+     */
+    public int getRunningCalls() {
+        return dispatcher == null ? 0 : dispatcher.getRunningCalls();
+    }
+    
+    /**
+     * Asynchronous calls waiting to be sent, zero if the number of running calls is not limited
+     */
+    public int getQueuedCalls() {
+        return dispatcher == null ? 0 : dispatcher.getQueuedCalls();
+    }
+    
+    /**
+     * Send Retrofit calls created with this factory concurrently and join their results in the order of the calls
+     * <p>
+     * No thread is blocked waiting for the calls. Canceling the returned future cancels the calls still running
+     */
+    public <T> CompletableFuture<List<FanOutResult<T>>> fanOut(@NotNull List<? extends retrofit2.Call<T>> calls,
+                                                              @NotNull FanOutOptions options) {
+        return new FanOut<T>(calls, options, scheduler).start();
+    }
+    
+    /**
+     * Stop accepting new calls, calls started before are completed as usual. New calls fail with
+     * {@link CallRejectedException}. The default callback executor is shut down once the calls are finished
+     */
+    public void shutdown() {
+        shutdown = true;
+        tryTerminate();
+    }
+    
+    /**
+     * Shut down and cancel the asynchronous calls still in flight, their callbacks fail with
+     * {@code IOException("Canceled")} like callbacks of canceled OkHttp calls. Synchronous calls waiting for response
+     * headers can not be interrupted, they are bounded by the call timeout
+     *
+     * @return number of canceled calls
+     */
+    public int shutdownNow() {
+        shutdown();
+        int canceled = 0;
+        for (HttpClientRetrofitCall call : inFlightCalls) {
+            if (call.cancelOnShutdown()) {
+                canceled++;
+            }
+        }
+        return canceled;
+    }
+    
+    public boolean isShutdown() {
+        return shutdown;
+    }
+    
+    /**
+     * Wait until all calls are finished after {@link #shutdown()}
+     *
+     * @return false if calls are still in flight after the timeout
+     */
+    public boolean awaitTermination(@NotNull Duration timeout) throws InterruptedException {
+        try {
+            terminated.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Started calls not finished yet, including queued ones
+     */
+    public int getInFlightCalls() {
+        return inFlightCalls.size();
+    }
+    
+    /**
+     * @return false if the factory is shut down and the call has to be rejected
+     */
+    boolean register(HttpClientRetrofitCall call) {
+        inFlightCalls.add(call);
+        // checked after adding, so a concurrent shutdown either sees the call or the call sees the shutdown
+        if (shutdown) {
+            deregister(call);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Registers a call sent on behalf of calls registered before, it is accepted even after shutdown
+     */
+    void registerAccepted(HttpClientRetrofitCall call) {
+        inFlightCalls.add(call);
+    }
+    
+    void deregister(HttpClientRetrofitCall call) {
+        if (inFlightCalls.remove(call) && shutdown) {
+            tryTerminate();
+        }
+    }
+    
+    private void tryTerminate() {
+        if (inFlightCalls.isEmpty()) {
+            terminated.complete(null);
+        }
+    }
+    
+    /**
+     * A callback rejected by a shut down executor is run by the completing thread, so no call is left unfinished.
+     * A callback rejected by a saturated {@link CallbackExecutor} is not run, the call fails instead
+     */
+    Executor callbackExecutor(CallPriority priority) {
+        if (asyncCallbackExecutor instanceof PriorityCallbackExecutor) {
+            PriorityCallbackExecutor priorityExecutor = (PriorityCallbackExecutor) asyncCallbackExecutor;
+            return command -> {
+                try {
+                    priorityExecutor.execute(command, priority);
+                } catch (RejectedExecutionException e) {
+                    command.run();
+                }
+            };
+        }
+        return callerRunsOnRejection;
+    }
+    
+    /**
+     * For cheap completion stages, any rejected task is run by the completing thread
+     */
+    Executor completionExecutor() {
+        return completionExecutor;
+    }
+    
+    private void callerRunsOnRejection(Runnable command) {
+        try {
+            asyncCallbackExecutor.execute(command);
+        } catch (RejectedExecutionException e) {
+            if (saturationAwareExecutor != null && !saturationAwareExecutor.isShutdown()) {
+                throw e;
+            }
+            command.run();
+        }
+    }
+    
+    private void runOnCompletion(Runnable command) {
+        try {
+            asyncCallbackExecutor.execute(command);
+        } catch (RejectedExecutionException e) {
+            command.run();
+        }
+    }
+    
+    private static ScheduledExecutorService newScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "retrofit-scheduler-" + SCHEDULER_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setKeepAliveTime(60, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
     }
     
     public static Builder builder(HttpClient httpClient) {
@@ -63,18 +318,35 @@ public class HttpClientRetrofitCallFactory implements Call.Factory {
         @NotNull
         private RetrofitResponseFactory responseFactory = new DefaultRetrofitResponseFactory();
         
-        @NotNull
-        private Executor asyncCallbackExecutor = ForkJoinPool.commonPool();
-    
+        @Nullable
+        private Executor asyncCallbackExecutor;
+        
         @NotNull
         private InterceptorChain interceptorChain = new DefaultInterceptorChain();
-    
+        
         @NotNull
         private List<Interceptor> interceptors = new ArrayList<>();
         
         @Nullable
         private Duration timeout;
         
+        @NotNull
+        private List<CallEventListener.Factory> eventListenerFactories = new ArrayList<>();
+        
+        @Nullable
+        private InFlightByteBudget byteBudget;
+        
+        private int maxConcurrentCalls;
+        
+        @Nullable
+        private String deadlineHeader;
+        
+        @Nullable
+        private TokenAuthenticator authenticator;
+        
+        @Nullable
+        private BatchCodec batchCodec;
+        
         public Builder(@NotNull HttpClient httpClient) {
             this.httpClient = httpClient;
         }
@@ -98,13 +370,13 @@ public class HttpClientRetrofitCallFactory implements Call.Factory {
         /**
          * Specify an executor which will execute asynchronous callbacks
          * <p>
-         * ForkJoin common pool is the default executor, do not block threads if the default one is used
+         * By default the factory runs callbacks on a {@link CallbackExecutor} of its own, shut down with the factory
          */
         public Builder withAsyncCallbackExecutor(@NotNull Executor executor) {
             this.asyncCallbackExecutor = executor;
             return this;
         }
-    
+        
         /**
          * If not set, DefaultRetrofitResponseFactory is used
          */
@@ -112,7 +384,7 @@ public class HttpClientRetrofitCallFactory implements Call.Factory {
             this.interceptorChain = interceptorChain;
             return this;
         }
-    
+        
         public Builder addInterceptor(@NotNull Interceptor interceptor) {
             this.interceptors.add(interceptor);
             return this;
@@ -128,10 +400,86 @@ public class HttpClientRetrofitCallFactory implements Call.Factory {
             return this;
         }
         
+        /**
+         * Register a listener shared between all calls
+         * <p>
+         * Listeners are notified in the registration order. Phase timings are measured only if at least one
+         * listener is registered
+         */
+        public Builder addEventListener(@NotNull CallEventListener eventListener) {
+            return addEventListenerFactory(call -> eventListener);
+        }
+        
+        /**
+         * Register a factory creating a listener per call
+         */
+        public Builder addEventListenerFactory(@NotNull CallEventListener.Factory eventListenerFactory) {
+            this.eventListenerFactories.add(eventListenerFactory);
+            return this;
+        }
+        
+        /**
+         * Bound request and response body bytes held in memory by calls of the factory
+         * <p>
+         * By default there is no budget
+         */
+        public Builder withInFlightByteBudget(@Nullable InFlightByteBudget byteBudget) {
+            this.byteBudget = byteBudget;
+            return this;
+        }
+        
+        /**
+         * Limit asynchronous calls waiting for response headers at once, calls above the limit are queued and sent
+         * in {@link CallPriority} order. Synchronous calls are not limited
+         * <p>
+         * By default there is no limit
+         */
+        public Builder withMaxConcurrentCalls(int maxConcurrentCalls) {
+            this.maxConcurrentCalls = maxConcurrentCalls;
+            return this;
+        }
+        
+        /**
+         * Send the time remaining until the {@link Deadline} of a call in milliseconds as the header, so the server
+         * can give up on the request when the caller does
+         * <p>
+         * By default the deadline is not sent
+         */
+        public Builder withDeadlinePropagation(@Nullable String headerName) {
+            this.deadlineHeader = headerName;
+            return this;
+        }
+        
+        /**
+         * Authenticate requests before other interceptors see them and retry calls rejected with 401 once with
+         * a fresh token
+         */
+        public Builder withAuthenticator(@Nullable TokenAuthenticator authenticator) {
+            this.authenticator = authenticator;
+            return this;
+        }
+        
+        /**
+         * Send asynchronous calls of {@link Batched} service methods arriving close together as one batch call,
+         * with bodies combined and the response split by the codec
+         * <p>
+         * By default calls are not batched
+         */
+        public Builder withBatching(@Nullable BatchCodec batchCodec) {
+            this.batchCodec = batchCodec;
+            return this;
+        }
+        
         public HttpClientRetrofitCallFactory build() {
+            List<Interceptor> interceptors = this.interceptors;
+            if (authenticator != null) {
+                interceptors = new ArrayList<>(this.interceptors.size() + 1);
+                interceptors.add(authenticator);
+                interceptors.addAll(this.interceptors);
+            }
             interceptorChain.setInterceptors(interceptors);
             
-            return new HttpClientRetrofitCallFactory(httpClient, requestFactory, responseFactory, asyncCallbackExecutor, interceptorChain, timeout);
+            return new HttpClientRetrofitCallFactory(this);
         }
     }
 }
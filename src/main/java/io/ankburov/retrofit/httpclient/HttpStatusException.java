@@ -0,0 +1,20 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+
+/**
+ * Response status is not successful where the response body can not be handed to the caller, like in streams
+ */
+public class HttpStatusException extends IOException {
+    
+    private final int code;
+    
+    public HttpStatusException(int code) {
+        super("HTTP " + code);
+        this.code = code;
+    }
+    
+    public int code() {
+        return code;
+    }
+}
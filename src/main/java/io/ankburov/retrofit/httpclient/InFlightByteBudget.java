@@ -0,0 +1,142 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Factory-wide budget of request and response body bytes held in memory
+ * <p>
+ * A call reserves the length of its buffered request body before the body is buffered, a body of unknown length is
+ * reserved once it is buffered. A synchronous call waits up to {@code maxWait} for the budget, then it is rejected
+ * with {@link CallRejectedException}, an asynchronous call is rejected at once, as it must not block the thread
+ * sending it, {@code maxConcurrentCalls} of the factory queues them instead. A received response
+ * reserves its {@code Content-Length} until its body is closed, responses are never held back, but new calls are
+ * admitted only after they are consumed. A call larger than the whole budget is admitted when nothing else is in flight
+ */
+public class InFlightByteBudget implements InFlightByteBudgetMXBean {
+    
+    private final long maxBytes;
+    
+    private final long maxWaitNanos;
+    
+    private final AtomicLong bytesInFlight = new AtomicLong();
+    
+    private final AtomicLong rejectedCalls = new AtomicLong();
+    
+    // changed under the monitor, read by releases to skip notification when nobody waits
+    private volatile int waitingCalls;
+    
+    /**
+     * @param maxWait how long a synchronous call waits for the budget, zero to reject calls immediately
+     */
+    public InFlightByteBudget(long maxBytes, @NotNull Duration maxWait) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Budget must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+    
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    @Override
+    public long getBytesInFlight() {
+        return bytesInFlight.get();
+    }
+    
+    @Override
+    public int getWaitingCalls() {
+        return waitingCalls;
+    }
+    
+    @Override
+    public long getRejectedCalls() {
+        return rejectedCalls.get();
+    }
+    
+    public ObjectName registerMBean(@NotNull String name) throws JMException {
+        return Platform.registerMBean(this, "InFlightByteBudget", name);
+    }
+    
+    /**
+     * Reserve bytes of a new call
+     *
+     * @param mayWait whether the calling thread may wait for the budget
+     */
+    void reserve(long bytes, boolean mayWait) throws CallRejectedException {
+        if (bytes <= 0 || tryReserve(bytes)) {
+            return;
+        }
+        if (mayWait && maxWaitNanos > 0) {
+            try {
+                if (awaitReserve(bytes)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        rejectedCalls.incrementAndGet();
+        throw new CallRejectedException("In-flight byte budget of " + maxBytes + " bytes is exhausted, "
+                + bytes + " bytes requested");
+    }
+    
+    /**
+     * Reserve bytes already received, they are accounted even if the budget is exhausted
+     */
+    void forceReserve(long bytes) {
+        if (bytes > 0) {
+            bytesInFlight.addAndGet(bytes);
+        }
+    }
+    
+    void release(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        bytesInFlight.addAndGet(-bytes);
+        if (waitingCalls > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+    
+    private boolean tryReserve(long bytes) {
+        while (true) {
+            long current = bytesInFlight.get();
+            if (current != 0 && current + bytes > maxBytes) {
+                return false;
+            }
+            if (bytesInFlight.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+    
+    private synchronized boolean awaitReserve(long bytes) throws InterruptedException {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        waitingCalls++;
+        try {
+            while (!tryReserve(bytes)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        } finally {
+            waitingCalls--;
+        }
+    }
+}
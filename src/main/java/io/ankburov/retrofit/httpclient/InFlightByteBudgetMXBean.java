@@ -0,0 +1,15 @@
+package io.ankburov.retrofit.httpclient;
+
+/**
+ * JMX view of {@link InFlightByteBudget}
+ */
+public interface InFlightByteBudgetMXBean {
+    
+    long getMaxBytes();
+    
+    long getBytesInFlight();
+    
+    int getWaitingCalls();
+    
+    long getRejectedCalls();
+}
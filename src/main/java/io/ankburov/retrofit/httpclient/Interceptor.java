@@ -9,7 +9,7 @@ import okhttp3.Response;
 /**
  * Wrapping logic around request execution
  * <p>
- * Intermediate variables can be stored in request tags
+ * Intermediate variables can be stored in the call context without copying the request
  */
 public interface Interceptor {
     
@@ -17,6 +17,13 @@ public interface Interceptor {
         return request;
     }
     
+    /**
+     * Return the same request instance if it is not changed, every {@code request.newBuilder()} copies the request
+     */
+    default Request onRequest(@NotNull Request request, @NotNull CallContext context) {
+        return onRequest(request);
+    }
+    
     /**
      * @param response  not null for non-error result
      * @param throwable not null for error result
@@ -25,4 +32,13 @@ public interface Interceptor {
     default Response onResult(@NotNull Request request, @Nullable Response response, @Nullable Throwable throwable) {
         return response;
     }
+    
+    /**
+     * @param context the same context the request was processed with
+     * @see #onResult(Request, Response, Throwable)
+     */
+    default Response onResult(@NotNull Request request, @Nullable Response response, @Nullable Throwable throwable,
+                              @NotNull CallContext context) {
+        return onResult(request, response, throwable);
+    }
 }
@@ -12,4 +12,12 @@ public interface InterceptorChain {
     Request processOnRequest(Request request);
     
     Response processOnResult(Request request, Response response, Throwable throwable);
+    
+    default Request processOnRequest(Request request, CallContext context) {
+        return processOnRequest(request);
+    }
+    
+    default Response processOnResult(Request request, Response response, Throwable throwable, CallContext context) {
+        return processOnResult(request, response, throwable);
+    }
 }
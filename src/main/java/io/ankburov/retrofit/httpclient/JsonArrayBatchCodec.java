@@ -0,0 +1,124 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+/**
+ * Sends bodies as items of a JSON array and splits the top level items of the response array without parsing them
+ */
+final class JsonArrayBatchCodec implements BatchCodec {
+    
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    
+    @NotNull
+    @Override
+    public RequestBody combine(@NotNull List<RequestBody> bodies) throws IOException {
+        Buffer buffer = new Buffer();
+        buffer.writeByte('[');
+        for (int i = 0; i < bodies.size(); i++) {
+            if (i > 0) {
+                buffer.writeByte(',');
+            }
+            bodies.get(i).writeTo(buffer);
+        }
+        buffer.writeByte(']');
+        long contentLength = buffer.size();
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+            
+            @Override
+            public long contentLength() {
+                return contentLength;
+            }
+            
+            @Override
+            public void writeTo(@NotNull BufferedSink sink) throws IOException {
+                sink.write(buffer.snapshot());
+            }
+        };
+    }
+    
+    @NotNull
+    @Override
+    public List<ResponseBody> split(@NotNull ResponseBody body, int parts) throws IOException {
+        MediaType contentType = body.contentType();
+        byte[] bytes = body.bytes();
+        int arrayStart = skipWhitespace(bytes, 0);
+        if (arrayStart == bytes.length || bytes[arrayStart] != '[') {
+            throw new IOException("Batch response is not a JSON array");
+        }
+        List<ResponseBody> items = new ArrayList<>(parts);
+        // nesting below the top level array
+        int depth = 0;
+        int itemStart = arrayStart + 1;
+        boolean inString = false;
+        for (int i = itemStart; i < bytes.length; i++) {
+            byte b = bytes[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '[' || b == '{') {
+                depth++;
+            } else if ((b == ']' || b == '}') && depth > 0) {
+                depth--;
+            } else if (b == ',' && depth == 0) {
+                addItem(items, bytes, itemStart, i, contentType);
+                itemStart = i + 1;
+            } else if (b == ']') {
+                if (skipWhitespace(bytes, itemStart) < i || !items.isEmpty()) {
+                    addItem(items, bytes, itemStart, i, contentType);
+                }
+                if (skipWhitespace(bytes, i + 1) != bytes.length) {
+                    break;
+                }
+                if (items.size() != parts) {
+                    throw new IOException("Batch response has " + items.size() + " items, expected " + parts);
+                }
+                return items;
+            }
+        }
+        throw new IOException("Batch response is not a JSON array");
+    }
+    
+    /**
+     * Whitespace around the item is not a part of it
+     */
+    private static void addItem(List<ResponseBody> items, byte[] bytes, int start, int end, MediaType contentType) {
+        int itemStart = skipWhitespace(bytes, start);
+        int itemEnd = end;
+        while (itemEnd > itemStart && isWhitespace(bytes[itemEnd - 1])) {
+            itemEnd--;
+        }
+        Buffer item = new Buffer().write(bytes, itemStart, itemEnd - itemStart);
+        items.add(ResponseBody.create(item, contentType, item.size()));
+    }
+    
+    private static int skipWhitespace(byte[] bytes, int start) {
+        int i = start;
+        while (i < bytes.length && isWhitespace(bytes[i])) {
+            i++;
+        }
+        return i;
+    }
+    
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
@@ -0,0 +1,87 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Response body stream which blocks through {@link CallbackExecutor#managedBlock} on ForkJoin threads, so a pool
+ * running callbacks starts a spare thread instead of losing one. Bytes already received are read without blocking
+ */
+final class ManagedBlockingInputStream extends FilterInputStream {
+    
+    /**
+     * Buffer of single byte reads, a body stream is read by one thread at a time
+     */
+    private final byte[] single = new byte[1];
+    
+    ManagedBlockingInputStream(@NotNull InputStream in) {
+        super(in);
+    }
+    
+    @Override
+    public int read() throws IOException {
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xFF;
+    }
+    
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        if (!(Thread.currentThread() instanceof ForkJoinWorkerThread) || len == 0 || in.available() > 0) {
+            return in.read(b, off, len);
+        }
+        Read blocker = new Read(b, off, len);
+        try {
+            CallbackExecutor.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the response body");
+        }
+        return blocker.result();
+    }
+    
+    private final class Read implements ForkJoinPool.ManagedBlocker {
+        
+        private final byte[] b;
+        private final int off;
+        private final int len;
+        
+        private boolean done;
+        private int read;
+        private IOException failure;
+        
+        private Read(byte[] b, int off, int len) {
+            this.b = b;
+            this.off = off;
+            this.len = len;
+        }
+        
+        @Override
+        public boolean block() {
+            try {
+                read = in.read(b, off, len);
+            } catch (IOException e) {
+                failure = e;
+            }
+            done = true;
+            return true;
+        }
+        
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+        
+        private int result() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            return read;
+        }
+    }
+}
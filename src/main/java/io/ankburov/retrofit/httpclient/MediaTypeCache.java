@@ -0,0 +1,36 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.MediaType;
+
+/**
+ * Parsed media types of Content-Type header values
+ * <p>
+ * Services respond with a handful of content types, so parsing each of them once is enough. The cache stops
+ * growing at {@value #MAX_SIZE} entries to stay bounded if a server sends unique values like multipart boundaries
+ */
+class MediaTypeCache {
+    
+    private static final int MAX_SIZE = 256;
+    
+    private final ConcurrentMap<String, MediaType> mediaTypes = new ConcurrentHashMap<>();
+    
+    @Nullable
+    MediaType parse(@Nullable String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        MediaType mediaType = mediaTypes.get(contentType);
+        if (mediaType == null) {
+            mediaType = MediaType.parse(contentType);
+            if (mediaType != null && mediaTypes.size() < MAX_SIZE) {
+                mediaTypes.putIfAbsent(contentType, mediaType);
+            }
+        }
+        return mediaType;
+    }
+}
@@ -0,0 +1,38 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.Request;
+import retrofit2.Invocation;
+
+/**
+ * Reads {@link Batched} of Retrofit service methods, Retrofit classes are not loaded if Retrofit is absent
+ */
+final class MethodBatching {
+    
+    private MethodBatching() {
+    }
+    
+    /**
+     * @param batching annotations read so far, methods without one are cached as well
+     */
+    @Nullable
+    static Batched lookup(@NotNull ConcurrentMap<Method, Optional<Batched>> batching, @NotNull Request request) {
+        Invocation invocation = request.tag(Invocation.class);
+        if (invocation == null) {
+            return null;
+        }
+        Method method = invocation.method();
+        Optional<Batched> batched = batching.get(method);
+        if (batched == null) {
+            batched = Optional.ofNullable(method.getAnnotation(Batched.class));
+            batching.putIfAbsent(method, batched);
+        }
+        return batched.orElse(null);
+    }
+}
@@ -0,0 +1,34 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.NotNull;
+
+import okhttp3.Request;
+import retrofit2.Invocation;
+
+/**
+ * Reads {@link Priority} of Retrofit service methods, Retrofit classes are not loaded if Retrofit is absent
+ */
+final class MethodPriority {
+    
+    private MethodPriority() {
+    }
+    
+    @NotNull
+    static CallPriority lookup(@NotNull ConcurrentMap<Method, CallPriority> priorities, @NotNull Request request) {
+        Invocation invocation = request.tag(Invocation.class);
+        if (invocation == null) {
+            return CallPriority.NORMAL;
+        }
+        Method method = invocation.method();
+        CallPriority priority = priorities.get(method);
+        if (priority == null) {
+            Priority annotation = method.getAnnotation(Priority.class);
+            priority = annotation == null ? CallPriority.NORMAL : annotation.value();
+            priorities.putIfAbsent(method, priority);
+        }
+        return priority;
+    }
+}
@@ -0,0 +1,115 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Multipart body with file parts streamed from the files, other parts and the framing are buffered
+ * <p>
+ * The framing is the same as written by {@link MultipartBody#writeTo(okio.BufferedSink)}
+ */
+final class MultipartBodyPublisher {
+    
+    private static final ByteString CRLF = ByteString.encodeUtf8("\r\n");
+    private static final ByteString DASHDASH = ByteString.encodeUtf8("--");
+    private static final ByteString COLON_SPACE = ByteString.encodeUtf8(": ");
+    
+    private MultipartBodyPublisher() {
+    }
+    
+    static boolean hasFileParts(MultipartBody body) {
+        for (MultipartBody.Part part : body.parts()) {
+            if (part.body() instanceof FileRequestBody) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    static HttpRequest.BodyPublisher of(MultipartBody body) throws IOException {
+        // byte arrays and files in the order they are sent
+        List<Object> chunks = new ArrayList<>();
+        long contentLength = 0;
+        
+        ByteString boundary = ByteString.encodeUtf8(body.boundary());
+        Buffer buffer = new Buffer();
+        for (MultipartBody.Part part : body.parts()) {
+            RequestBody partBody = part.body();
+            buffer.write(DASHDASH).write(boundary).write(CRLF);
+            
+            Headers headers = part.headers();
+            if (headers != null) {
+                for (int i = 0; i < headers.size(); i++) {
+                    buffer.writeUtf8(headers.name(i)).write(COLON_SPACE).writeUtf8(headers.value(i)).write(CRLF);
+                }
+            }
+            MediaType contentType = partBody.contentType();
+            if (contentType != null) {
+                buffer.writeUtf8("Content-Type: ").writeUtf8(contentType.toString()).write(CRLF);
+            }
+            long partLength = partBody.contentLength();
+            if (partLength != -1) {
+                buffer.writeUtf8("Content-Length: ").writeDecimalLong(partLength).write(CRLF);
+            }
+            buffer.write(CRLF);
+            
+            if (partBody instanceof FileRequestBody) {
+                contentLength += buffer.size() + partLength;
+                chunks.add(buffer.readByteArray());
+                chunks.add(((FileRequestBody) partBody).file());
+            } else {
+                partBody.writeTo(buffer);
+            }
+            buffer.write(CRLF);
+        }
+        buffer.write(DASHDASH).write(boundary).write(DASHDASH).write(CRLF);
+        contentLength += buffer.size();
+        chunks.add(buffer.readByteArray());
+        
+        return HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> new SequenceInputStream(streams(chunks))), contentLength);
+    }
+    
+    /**
+     * Files are opened one by one when they are reached
+     */
+    private static Enumeration<InputStream> streams(List<Object> chunks) {
+        Iterator<Object> iterator = chunks.iterator();
+        return new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+            
+            @Override
+            public InputStream nextElement() {
+                Object chunk = iterator.next();
+                if (chunk instanceof byte[]) {
+                    return new ByteArrayInputStream((byte[]) chunk);
+                }
+                try {
+                    return Files.newInputStream((Path) chunk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+}
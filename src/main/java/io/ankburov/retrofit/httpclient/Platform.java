@@ -0,0 +1,47 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Runtime checks and JMX registration shared by the call factory and its statistics, not meant for applications
+ */
+public final class Platform {
+    
+    /**
+     * Retrofit is not a compile dependency, Retrofit classes are used only if it is present
+     */
+    public static final boolean INVOCATION_SUPPORTED = isClassPresent("retrofit2.Invocation");
+    
+    private static final String DOMAIN = "io.ankburov.retrofit.httpclient";
+    
+    private Platform() {
+    }
+    
+    /**
+     * Register the bean in the platform MBean server under the domain of the library
+     *
+     * @param type simple name of the bean class
+     * @param name distinguishes beans of different call factories
+     */
+    @NotNull
+    public static ObjectName registerMBean(@NotNull Object mbean, @NotNull String type, @NotNull String name)
+            throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+        return objectName;
+    }
+    
+    private static boolean isClassPresent(String className) {
+        try {
+            Class.forName(className, false, Platform.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
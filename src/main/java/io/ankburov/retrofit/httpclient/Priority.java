@@ -0,0 +1,18 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Priority of calls of a Retrofit service method, a {@link CallPriority} request tag overrides it
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Priority {
+    
+    CallPriority value();
+}
@@ -0,0 +1,78 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Async callback executor running callbacks of higher {@link CallPriority} first, FIFO within a priority
+ * <p>
+ * Used as {@link HttpClientRetrofitCallFactory.Builder#withAsyncCallbackExecutor(Executor)}, it receives the
+ * priority of every call. Tasks submitted by {@link #execute(Runnable)} run with {@link CallPriority#NORMAL}
+ */
+public class PriorityCallbackExecutor implements Executor {
+    
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    
+    private final ThreadPoolExecutor executor;
+    
+    private final AtomicLong sequence = new AtomicLong();
+    
+    public PriorityCallbackExecutor(int threads) {
+        String namePrefix = "retrofit-callback-" + POOL_NUMBER.incrementAndGet() + "-";
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+    
+    @Override
+    public void execute(@NotNull Runnable command) {
+        execute(command, CallPriority.NORMAL);
+    }
+    
+    public void execute(@NotNull Runnable command, @NotNull CallPriority priority) {
+        executor.execute(new PrioritizedTask(command, priority, sequence.getAndIncrement()));
+    }
+    
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+    
+    public void shutdown() {
+        executor.shutdown();
+    }
+    
+    private static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        
+        private final Runnable command;
+        private final CallPriority priority;
+        private final long sequence;
+        
+        private PrioritizedTask(Runnable command, CallPriority priority, long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+        
+        @Override
+        public void run() {
+            command.run();
+        }
+        
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.net.http.HttpClient;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Http version per host, applied by {@link DefaultHttpRequestFactory.Builder#withProtocolPolicy(ProtocolPolicy)}.
+ * Requests to other hosts use the default version of the policy or, if there is none, the version of the Http Client
+ * <p>
+ * HTTP/2 over cleartext is negotiated with an h2c upgrade, Http Client does not support prior knowledge. Register
+ * the policy as an event listener of the call factory to see the protocols the hosts actually speak
+ */
+public final class ProtocolPolicy implements CallEventListener {
+    
+    private static final Protocol[] PROTOCOLS = Protocol.values();
+    
+    @NotNull
+    private final Map<String, HttpClient.Version> hostVersions;
+    
+    @Nullable
+    private final HttpClient.Version defaultVersion;
+    
+    /**
+     * Responses per host counted by protocol ordinal
+     */
+    private final ConcurrentMap<String, AtomicLongArray> observedProtocols = new ConcurrentHashMap<>();
+    
+    private ProtocolPolicy(@NotNull Builder builder) {
+        this.hostVersions = Map.copyOf(builder.hostVersions);
+        this.defaultVersion = builder.defaultVersion;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * @return null if the version of the Http Client is used
+     */
+    @Nullable
+    public HttpClient.Version versionOf(@NotNull HttpUrl url) {
+        HttpClient.Version version = hostVersions.get(url.host());
+        return version != null ? version : defaultVersion;
+    }
+    
+    @Override
+    public void callEnd(@NotNull Call call, @NotNull Response response, long durationNanos) {
+        String host = call.request().url().host();
+        AtomicLongArray counts = observedProtocols.get(host);
+        if (counts == null) {
+            counts = observedProtocols.computeIfAbsent(host, key -> new AtomicLongArray(PROTOCOLS.length));
+        }
+        counts.incrementAndGet(response.protocol().ordinal());
+    }
+    
+    /**
+     * Responses received from the host by protocol, empty if there were none
+     */
+    @NotNull
+    public Map<Protocol, Long> getObservedProtocols(@NotNull String host) {
+        AtomicLongArray counts = observedProtocols.get(host);
+        Map<Protocol, Long> protocols = new EnumMap<>(Protocol.class);
+        if (counts != null) {
+            for (Protocol protocol : PROTOCOLS) {
+                long count = counts.get(protocol.ordinal());
+                if (count > 0) {
+                    protocols.put(protocol, count);
+                }
+            }
+        }
+        return protocols;
+    }
+    
+    /**
+     * Responses received by host and protocol
+     */
+    @NotNull
+    public Map<String, Map<Protocol, Long>> getObservedProtocols() {
+        Map<String, Map<Protocol, Long>> hosts = new HashMap<>();
+        for (String host : observedProtocols.keySet()) {
+            hosts.put(host, getObservedProtocols(host));
+        }
+        return hosts;
+    }
+    
+    public static class Builder {
+        
+        @NotNull
+        private final Map<String, HttpClient.Version> hostVersions = new HashMap<>();
+        
+        @Nullable
+        private HttpClient.Version defaultVersion;
+        
+        /**
+         * Version for hosts without their own one
+         * <p>
+         * By default the version of the Http Client is used
+         */
+        public Builder withDefaultVersion(@Nullable HttpClient.Version version) {
+            this.defaultVersion = version;
+            return this;
+        }
+        
+        /**
+         * Version for the host, for example HTTP/1.1 for servers with a broken HTTP/2 implementation or HTTP/2 for
+         * internal cleartext services supporting h2c. Hosts are matched ignoring case, like urls do
+         */
+        public Builder forHost(@NotNull String host, @NotNull HttpClient.Version version) {
+            this.hostVersions.put(host.toLowerCase(Locale.ROOT), version);
+            return this;
+        }
+        
+        public ProtocolPolicy build() {
+            return new ProtocolPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.lang.reflect.Method;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.Headers;
+import okhttp3.Request;
+import retrofit2.Invocation;
+
+/**
+ * Http Client request builder prepared once per Retrofit service method
+ * <p>
+ * Holds headers of the {@code @Headers} annotation already validated by Http Client. Retrofit puts them before
+ * any other header, so a request starting with exactly these headers reuses the prepared builder. The template ends
+ * at the first header Http Client does not accept as is, the rest is handled per request
+ * <p>
+ * The http method is preset for methods without a body. The body and the timeout are set per call, since the timeout
+ * is cut by the deadline of each call
+ */
+class RequestTemplate {
+    
+    private static final String CONTENT_TYPE = "Content-Type";
+    
+    @NotNull
+    private final HttpRequest.Builder prototype;
+    
+    @NotNull
+    private final String[] staticHeaders;
+    
+    /**
+     * Http method preset in the prototype, null if the service method sends a body
+     */
+    @Nullable
+    private final String bodilessMethod;
+    
+    private RequestTemplate(@NotNull HttpRequest.Builder prototype, @NotNull String[] staticHeaders,
+                            @Nullable String bodilessMethod) {
+        this.prototype = prototype;
+        this.staticHeaders = staticHeaders;
+        this.bodilessMethod = bodilessMethod;
+    }
+    
+    @NotNull
+    private static RequestTemplate of(@NotNull Invocation invocation, @NotNull Request request) {
+        Method method = invocation.method();
+        retrofit2.http.Headers annotation = method.getAnnotation(retrofit2.http.Headers.class);
+        
+        HttpRequest.Builder prototype = HttpRequest.newBuilder();
+        String bodilessMethod = request.body() == null ? request.method() : null;
+        if (bodilessMethod != null) {
+            prototype.method(bodilessMethod, HttpRequest.BodyPublishers.noBody());
+        }
+        List<String> staticHeaders = new ArrayList<>();
+        if (annotation != null) {
+            for (String header : annotation.value()) {
+                // the same parsing as in Retrofit, which has already validated the annotation
+                int colon = header.indexOf(':');
+                String name = header.substring(0, colon);
+                String value = header.substring(colon + 1).trim();
+                if (HeaderKind.of(name) != HeaderKind.PASS) {
+                    break;
+                }
+                if (!CONTENT_TYPE.equalsIgnoreCase(name)) {
+                    prototype.header(name, value);
+                    staticHeaders.add(name);
+                    staticHeaders.add(value);
+                }
+            }
+        }
+        return new RequestTemplate(prototype, staticHeaders.toArray(new String[0]), bodilessMethod);
+    }
+    
+    /**
+     * @return number of leading request headers already present in the template,
+     * -1 if the request headers were modified and the template cannot be used
+     */
+    int matchStaticHeaders(@NotNull Headers headers) {
+        int count = staticHeaders.length / 2;
+        if (headers.size() < count) {
+            return -1;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!staticHeaders[i * 2].equals(headers.name(i)) || !staticHeaders[i * 2 + 1].equals(headers.value(i))) {
+                return -1;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * @return true if the builder of the template already has the method of the request
+     */
+    boolean presetsMethod(@NotNull Request request) {
+        return bodilessMethod != null && request.body() == null && bodilessMethod.equals(request.method());
+    }
+    
+    @NotNull
+    HttpRequest.Builder newBuilder() {
+        return prototype.copy();
+    }
+    
+    /**
+     * @return template of the Retrofit service method the request is created by, null for non-Retrofit requests
+     */
+    @Nullable
+    static RequestTemplate lookup(@NotNull ConcurrentMap<Method, RequestTemplate> templates, @NotNull Request request) {
+        Invocation invocation = request.tag(Invocation.class);
+        if (invocation == null) {
+            return null;
+        }
+        RequestTemplate template = templates.get(invocation.method());
+        if (template == null) {
+            template = templates.computeIfAbsent(invocation.method(), method -> of(invocation, request));
+        }
+        return template;
+    }
+}
@@ -0,0 +1,70 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.time.Duration;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Event of a {@code text/event-stream} response
+ */
+public final class ServerSentEvent {
+    
+    static final String DEFAULT_EVENT = "message";
+    
+    @Nullable
+    private final String id;
+    
+    @NotNull
+    private final String event;
+    
+    @NotNull
+    private final String data;
+    
+    @Nullable
+    private final Duration retry;
+    
+    public ServerSentEvent(@Nullable String id, @NotNull String event, @NotNull String data, @Nullable Duration retry) {
+        this.id = id;
+        this.event = event;
+        this.data = data;
+        this.retry = retry;
+    }
+    
+    /**
+     * Last event id seen in the stream, it is kept between events
+     */
+    @Nullable
+    public String id() {
+        return id;
+    }
+    
+    /**
+     * Event type, {@code message} if the event has no type
+     */
+    @NotNull
+    public String event() {
+        return event;
+    }
+    
+    /**
+     * Data lines joined with a line feed
+     */
+    @NotNull
+    public String data() {
+        return data;
+    }
+    
+    /**
+     * Reconnection time requested by the server with this event
+     */
+    @Nullable
+    public Duration retry() {
+        return retry;
+    }
+    
+    @Override
+    public String toString() {
+        return "ServerSentEvent{id=" + id + ", event=" + event + ", data=" + data + ", retry=" + retry + '}';
+    }
+}
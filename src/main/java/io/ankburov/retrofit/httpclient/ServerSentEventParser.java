@@ -0,0 +1,149 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.time.Duration;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Parses lines of an event stream into events
+ * <p>
+ * Lines are requested one by one and only while the downstream has unfulfilled demand, so a slow consumer
+ * stops reading from the connection
+ */
+class ServerSentEventParser implements Flow.Subscriber<String>, Flow.Subscription {
+    
+    @NotNull
+    private final Flow.Subscriber<? super ServerSentEvent> downstream;
+    
+    private final AtomicLong demand = new AtomicLong();
+    
+    /**
+     * At most one line is requested at a time
+     */
+    private final AtomicBoolean lineRequested = new AtomicBoolean();
+    
+    private Flow.Subscription upstream;
+    
+    // accessed only by the upstream signals, which are serial
+    @Nullable
+    private String lastEventId;
+    
+    @Nullable
+    private String eventType;
+    
+    @Nullable
+    private Duration retry;
+    
+    private final StringBuilder data = new StringBuilder();
+    
+    private boolean hasData;
+    
+    ServerSentEventParser(@NotNull Flow.Subscriber<? super ServerSentEvent> downstream) {
+        this.downstream = downstream;
+    }
+    
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.upstream = subscription;
+        downstream.onSubscribe(this);
+    }
+    
+    @Override
+    public void onNext(String line) {
+        if (line.isEmpty()) {
+            dispatch();
+        } else if (line.charAt(0) != ':') {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                field(line, "");
+            } else {
+                int valueStart = colon + 1 < line.length() && line.charAt(colon + 1) == ' ' ? colon + 2 : colon + 1;
+                field(line.substring(0, colon), line.substring(valueStart));
+            }
+        }
+        lineRequested.set(false);
+        requestLine();
+    }
+    
+    @Override
+    public void onError(Throwable throwable) {
+        downstream.onError(throwable);
+    }
+    
+    /**
+     * An incomplete event at the end of the stream is discarded
+     */
+    @Override
+    public void onComplete() {
+        downstream.onComplete();
+    }
+    
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            upstream.cancel();
+            downstream.onError(new IllegalArgumentException("Non-positive request: " + n));
+            return;
+        }
+        demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+        requestLine();
+    }
+    
+    @Override
+    public void cancel() {
+        upstream.cancel();
+    }
+    
+    private void requestLine() {
+        if (demand.get() > 0 && lineRequested.compareAndSet(false, true)) {
+            upstream.request(1);
+        }
+    }
+    
+    private void field(String name, String value) {
+        switch (name) {
+            case "event":
+                eventType = value;
+                break;
+            case "data":
+                data.append(value).append('\n');
+                hasData = true;
+                break;
+            case "id":
+                if (value.indexOf('\0') < 0) {
+                    lastEventId = value;
+                }
+                break;
+            case "retry":
+                try {
+                    retry = Duration.ofMillis(Long.parseLong(value));
+                } catch (NumberFormatException ignored) {
+                    // ignored as the specification requires
+                }
+                break;
+            default:
+                break;
+        }
+    }
+    
+    private void dispatch() {
+        if (hasData) {
+            data.setLength(data.length() - 1);
+            ServerSentEvent event = new ServerSentEvent(lastEventId,
+                    eventType == null || eventType.isEmpty() ? ServerSentEvent.DEFAULT_EVENT : eventType,
+                    data.toString(), retry);
+            if (demand.get() != Long.MAX_VALUE) {
+                demand.decrementAndGet();
+            }
+            downstream.onNext(event);
+        }
+        data.setLength(0);
+        hasData = false;
+        eventType = null;
+        retry = null;
+    }
+}
@@ -0,0 +1,228 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.Request;
+
+/**
+ * Sets the {@code Authorization} header with a cached token from the {@link TokenSource}
+ * <p>
+ * The token is refreshed in the background shortly before it expires, requests keep using the current token
+ * meanwhile. Requests wait only if there is no valid token at all, asynchronous calls of the factory are sent once
+ * the token is fetched without blocking a thread. A single refresh runs at a time, however many requests need it.
+ * Requests with {@code Authorization} set by the caller are left untouched.
+ * <p>
+ * Register the authenticator with {@link HttpClientRetrofitCallFactory.Builder#withAuthenticator(TokenAuthenticator)},
+ * then a call rejected with 401 is retried once with a fresh token. Streams and downloads are not retried
+ */
+public class TokenAuthenticator implements Interceptor {
+    
+    private static final String AUTHORIZATION = "Authorization";
+    
+    @NotNull
+    private final TokenSource tokenSource;
+    
+    @NotNull
+    private final Duration refreshAhead;
+    
+    @NotNull
+    private final Duration fetchTimeout;
+    
+    @NotNull
+    private final Clock clock;
+    
+    private final AtomicReference<AccessToken> token = new AtomicReference<>();
+    
+    /**
+     * Refresh in flight, null if there is none
+     */
+    private final AtomicReference<CompletableFuture<AccessToken>> refreshing = new AtomicReference<>();
+    
+    protected TokenAuthenticator(@NotNull Builder builder) {
+        this.tokenSource = builder.tokenSource;
+        this.refreshAhead = builder.refreshAhead;
+        this.fetchTimeout = builder.fetchTimeout;
+        this.clock = builder.clock;
+    }
+    
+    public static Builder builder(@NotNull TokenSource tokenSource) {
+        return new Builder(tokenSource);
+    }
+    
+    /**
+     * @throws UncheckedIOException if there is no valid token and a new one could not be fetched in time
+     */
+    @Override
+    public Request onRequest(@NotNull Request request, @NotNull CallContext context) {
+        if (request.header(AUTHORIZATION) != null) {
+            return request;
+        }
+        context.put(TokenAuthenticator.class, this);
+        return request.newBuilder()
+                .header(AUTHORIZATION, currentToken().headerValue())
+                .build();
+    }
+    
+    /**
+     * Drop the cached token, the next request waits for a new one
+     */
+    public void invalidate() {
+        token.set(null);
+    }
+    
+    /**
+     * Calls rejected concurrently with the same token drop it once, so they share a single refresh
+     */
+    void tokenRejected(@NotNull Request request) {
+        AccessToken current = token.get();
+        if (current != null && current.headerValue().equals(request.header(AUTHORIZATION))) {
+            token.compareAndSet(current, null);
+        }
+    }
+    
+    /**
+     * Lets asynchronous calls wait for a token without blocking a thread
+     *
+     * @return null if the request has a token to be sent with right away, otherwise a future completed once a token
+     * is fetched or failed if it could not be fetched in time
+     */
+    @Nullable
+    CompletableFuture<AccessToken> awaitToken(@NotNull Request request) {
+        if (request.header(AUTHORIZATION) != null) {
+            return null;
+        }
+        AccessToken current = token.get();
+        if (current != null && clock.instant().isBefore(current.expiresAt())) {
+            return null;
+        }
+        // a copy, so the timeout of one call does not fail the refresh shared with others
+        return refresh().copy().orTimeout(fetchTimeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * @return false if the call was not authenticated by this authenticator
+     */
+    boolean authenticated(@NotNull CallContext context) {
+        return context.get(TokenAuthenticator.class) == this;
+    }
+    
+    @NotNull
+    private AccessToken currentToken() {
+        AccessToken current = token.get();
+        Instant now = clock.instant();
+        if (current != null && now.isBefore(current.expiresAt())) {
+            if (!now.isBefore(current.expiresAt().minus(refreshAhead))) {
+                refresh();
+            }
+            return current;
+        }
+        try {
+            return refresh().get(fetchTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Interrupted while waiting for an access token", e));
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException(new IOException("Access token is not available", e.getCause()));
+        } catch (TimeoutException e) {
+            throw new UncheckedIOException(new IOException("Access token is not fetched in " + fetchTimeout, e));
+        }
+    }
+    
+    /**
+     * @return the refresh in flight or a new one if there is none
+     */
+    private CompletableFuture<AccessToken> refresh() {
+        while (true) {
+            CompletableFuture<AccessToken> inFlight = refreshing.get();
+            if (inFlight != null) {
+                return inFlight;
+            }
+            CompletableFuture<AccessToken> started = new CompletableFuture<>();
+            if (refreshing.compareAndSet(null, started)) {
+                fetch(started);
+                return started;
+            }
+        }
+    }
+    
+    private void fetch(CompletableFuture<AccessToken> started) {
+        CompletableFuture<AccessToken> fetched;
+        try {
+            fetched = tokenSource.fetch();
+        } catch (RuntimeException e) {
+            fetched = CompletableFuture.failedFuture(e);
+        }
+        fetched.whenComplete((fresh, throwable) -> {
+            if (fresh != null) {
+                token.set(fresh);
+            }
+            // cleared before completion, so a request seeing the failure can start the next refresh
+            refreshing.set(null);
+            if (fresh != null) {
+                started.complete(fresh);
+            } else {
+                started.completeExceptionally(throwable != null ? throwable : new IOException("Token source returned null"));
+            }
+        });
+    }
+    
+    public static class Builder {
+        
+        @NotNull
+        private final TokenSource tokenSource;
+        
+        @NotNull
+        private Duration refreshAhead = Duration.ofSeconds(30);
+        
+        @NotNull
+        private Duration fetchTimeout = Duration.ofSeconds(10);
+        
+        @NotNull
+        private Clock clock = Clock.systemUTC();
+        
+        public Builder(@NotNull TokenSource tokenSource) {
+            this.tokenSource = tokenSource;
+        }
+        
+        /**
+         * Start refreshing the token this long before it expires
+         * <p>
+         * 30 seconds by default
+         */
+        public Builder withRefreshAhead(@NotNull Duration refreshAhead) {
+            this.refreshAhead = refreshAhead;
+            return this;
+        }
+        
+        /**
+         * How long a request waits for a token if there is no valid one
+         * <p>
+         * 10 seconds by default
+         */
+        public Builder withFetchTimeout(@NotNull Duration fetchTimeout) {
+            this.fetchTimeout = fetchTimeout;
+            return this;
+        }
+        
+        public Builder withClock(@Nullable Clock clock) {
+            this.clock = clock != null ? clock : Clock.systemUTC();
+            return this;
+        }
+        
+        public TokenAuthenticator build() {
+            return new TokenAuthenticator(this);
+        }
+    }
+}
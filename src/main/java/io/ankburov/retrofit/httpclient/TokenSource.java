@@ -0,0 +1,20 @@
+package io.ankburov.retrofit.httpclient;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Issuer of access tokens for {@link TokenAuthenticator}, like an OAuth client credentials grant
+ */
+@FunctionalInterface
+public interface TokenSource {
+    
+    /**
+     * Fetch a new token. The authenticator never fetches more than one token at a time
+     * <p>
+     * Do not block, the method is called on request threads. Fetch the token with an asynchronous call instead
+     */
+    @NotNull
+    CompletableFuture<AccessToken> fetch();
+}
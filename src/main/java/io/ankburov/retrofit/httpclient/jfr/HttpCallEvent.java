@@ -0,0 +1,67 @@
+package io.ankburov.retrofit.httpclient.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Call from its start until the response is handed to the caller
+ */
+@Name("io.ankburov.retrofit.httpclient.HttpCall")
+@Label("HTTP Call")
+@Category({"Retrofit", "HTTP Client"})
+@Description("Retrofit call executed by Java Http Client")
+@StackTrace(false)
+class HttpCallEvent extends jdk.jfr.Event {
+    
+    @Label("Method")
+    String method;
+    
+    @Label("URL")
+    String url;
+    
+    @Label("Host")
+    String host;
+    
+    @Label("Status Code")
+    int status;
+    
+    @Label("Request Body Size")
+    @Description("Request body size, -1 if not known upfront")
+    @DataAmount
+    long bytesOut;
+    
+    @Label("Request Interception Time")
+    @Timespan
+    long requestInterceptionTime;
+    
+    @Label("Request Build Time")
+    @Timespan
+    long requestBuildTime;
+    
+    @Label("Response Headers Wait Time")
+    @Timespan
+    long responseHeadersTime;
+    
+    @Label("Callback Executor Queue Time")
+    @Timespan
+    long callbackQueueTime;
+    
+    @Label("Response Conversion Time")
+    @Timespan
+    long responseConversionTime;
+    
+    @Label("Retries")
+    @Description("Times the call was sent again, like after 401 with a stale token")
+    int retries;
+    
+    @Label("Failure")
+    String failure;
+    
+    @Label("Canceled")
+    boolean canceled;
+}
@@ -0,0 +1,29 @@
+package io.ankburov.retrofit.httpclient.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Consumption of a response body from the moment the response is handed to the caller until the body is closed
+ */
+@Name("io.ankburov.retrofit.httpclient.HttpResponseBody")
+@Label("HTTP Response Body")
+@Category({"Retrofit", "HTTP Client"})
+@Description("Consumption of a response body by the caller")
+@StackTrace(false)
+class HttpResponseBodyEvent extends jdk.jfr.Event {
+    
+    @Label("URL")
+    String url;
+    
+    @Label("Host")
+    String host;
+    
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesIn;
+}
@@ -0,0 +1,122 @@
+package io.ankburov.retrofit.httpclient.jfr;
+
+import java.io.IOException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.ankburov.retrofit.httpclient.CallEventListener;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Fills JFR events of a single call
+ */
+class JfrCallEventListener implements CallEventListener {
+    
+    private static final long UNKNOWN_LENGTH = -1;
+    
+    private final HttpCallEvent callEvent = new HttpCallEvent();
+    
+    @Nullable
+    private HttpResponseBodyEvent bodyEvent;
+    
+    @Override
+    public void callStart(@NotNull Call call) {
+        callEvent.begin();
+        
+        Request request = call.request();
+        callEvent.method = request.method();
+        callEvent.url = request.url().toString();
+        callEvent.host = request.url().host();
+        callEvent.bytesOut = contentLength(request.body());
+    }
+    
+    @Override
+    public void requestIntercepted(@NotNull Call call, long durationNanos) {
+        callEvent.requestInterceptionTime = durationNanos;
+    }
+    
+    @Override
+    public void requestBuilt(@NotNull Call call, long durationNanos) {
+        callEvent.requestBuildTime = durationNanos;
+    }
+    
+    @Override
+    public void responseHeadersReceived(@NotNull Call call, long durationNanos) {
+        callEvent.responseHeadersTime = durationNanos;
+    }
+    
+    @Override
+    public void callbackDispatched(@NotNull Call call, long queuedNanos) {
+        callEvent.callbackQueueTime = queuedNanos;
+    }
+    
+    @Override
+    public void responseConverted(@NotNull Call call, long durationNanos) {
+        callEvent.responseConversionTime = durationNanos;
+    }
+    
+    @Override
+    public void callRetried(@NotNull Call call, @NotNull Response response) {
+        callEvent.retries++;
+    }
+    
+    @Override
+    public void callEnd(@NotNull Call call, @NotNull Response response, long durationNanos) {
+        callEvent.status = response.code();
+        commit();
+        
+        HttpResponseBodyEvent event = new HttpResponseBodyEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            event.url = callEvent.url;
+            event.host = callEvent.host;
+            bodyEvent = event;
+        }
+    }
+    
+    @Override
+    public void callFailed(@NotNull Call call, @NotNull IOException exception, long durationNanos) {
+        callEvent.failure = exception.toString();
+        commit();
+    }
+    
+    @Override
+    public void callCanceled(@NotNull Call call, long durationNanos) {
+        callEvent.canceled = true;
+        commit();
+    }
+    
+    @Override
+    public void responseBodyClosed(@NotNull Call call, long bytesRead, long durationNanos) {
+        HttpResponseBodyEvent event = bodyEvent;
+        if (event != null) {
+            event.bytesIn = bytesRead;
+            event.end();
+            if (event.shouldCommit()) {
+                event.commit();
+            }
+        }
+    }
+    
+    private void commit() {
+        callEvent.end();
+        if (callEvent.shouldCommit()) {
+            callEvent.commit();
+        }
+    }
+    
+    private static long contentLength(@Nullable RequestBody body) {
+        if (body == null) {
+            return 0;
+        }
+        try {
+            return body.contentLength();
+        } catch (IOException e) {
+            return UNKNOWN_LENGTH;
+        }
+    }
+}
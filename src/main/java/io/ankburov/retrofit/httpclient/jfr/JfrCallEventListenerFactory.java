@@ -0,0 +1,25 @@
+package io.ankburov.retrofit.httpclient.jfr;
+
+import org.jetbrains.annotations.NotNull;
+
+import io.ankburov.retrofit.httpclient.CallEventListener;
+import jdk.jfr.EventType;
+import okhttp3.Call;
+
+/**
+ * Emits {@code io.ankburov.retrofit.httpclient.HttpCall} and {@code io.ankburov.retrofit.httpclient.HttpResponseBody}
+ * Java Flight Recorder events
+ * <p>
+ * While the events are not enabled in any running recording, calls get no listener, so neither timings are measured
+ * nor events are allocated
+ */
+public class JfrCallEventListenerFactory implements CallEventListener.Factory {
+    
+    private final EventType callEventType = EventType.getEventType(HttpCallEvent.class);
+    
+    @NotNull
+    @Override
+    public CallEventListener create(@NotNull Call call) {
+        return callEventType.isEnabled() ? new JfrCallEventListener() : CallEventListener.NONE;
+    }
+}
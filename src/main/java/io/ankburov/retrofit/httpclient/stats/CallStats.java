@@ -0,0 +1,163 @@
+package io.ankburov.retrofit.httpclient.stats;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.ankburov.retrofit.httpclient.CallEventListener;
+import io.ankburov.retrofit.httpclient.Platform;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Per host and per method call statistics
+ * <p>
+ * Calls of Retrofit service methods are recorded per service method, like {@code GitHubService.listRepos}, other
+ * calls per HTTP method. Register the instance as an event listener of the call factory. Recording is lock-free and
+ * does not allocate once a host and method pair has been seen. Statistics are available through {@link #snapshot()}
+ * or JMX after {@link #registerMBean(String)}
+ */
+public class CallStats implements CallEventListener, CallStatsMXBean {
+    
+    private final ConcurrentMap<Method, String> serviceMethods = new ConcurrentHashMap<>();
+    
+    private final ConcurrentMap<String, ConcurrentMap<String, EndpointStats>> endpoints = new ConcurrentHashMap<>();
+    
+    private final AtomicLong inFlightCalls = new AtomicLong();
+    private final AtomicLong callbackQueueDepth = new AtomicLong();
+    private final AtomicLong completedCalls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+    private final AtomicLong canceledCalls = new AtomicLong();
+    private final AtomicLong retriedCalls = new AtomicLong();
+    
+    @Override
+    public void callStart(@NotNull Call call) {
+        inFlightCalls.incrementAndGet();
+    }
+    
+    @Override
+    public void callbackQueued(@NotNull Call call) {
+        callbackQueueDepth.incrementAndGet();
+    }
+    
+    @Override
+    public void callbackDispatched(@NotNull Call call, long queuedNanos) {
+        callbackQueueDepth.decrementAndGet();
+    }
+    
+    @Override
+    public void callEnd(@NotNull Call call, @NotNull Response response, long durationNanos) {
+        inFlightCalls.decrementAndGet();
+        completedCalls.incrementAndGet();
+        endpointOf(call.request()).recordResponse(response.code(), durationNanos);
+    }
+    
+    @Override
+    public void callFailed(@NotNull Call call, @NotNull IOException exception, long durationNanos) {
+        inFlightCalls.decrementAndGet();
+        failedCalls.incrementAndGet();
+        endpointOf(call.request()).recordFailure(durationNanos);
+    }
+    
+    @Override
+    public void callCanceled(@NotNull Call call, long durationNanos) {
+        inFlightCalls.decrementAndGet();
+        canceledCalls.incrementAndGet();
+    }
+    
+    @Override
+    public void callRetried(@NotNull Call call, @NotNull Response response) {
+        retriedCalls.incrementAndGet();
+    }
+    
+    @Override
+    public long getInFlightCalls() {
+        return inFlightCalls.get();
+    }
+    
+    @Override
+    public long getCallbackQueueDepth() {
+        return callbackQueueDepth.get();
+    }
+    
+    @Override
+    public long getCompletedCalls() {
+        return completedCalls.get();
+    }
+    
+    @Override
+    public long getFailedCalls() {
+        return failedCalls.get();
+    }
+    
+    @Override
+    public long getCanceledCalls() {
+        return canceledCalls.get();
+    }
+    
+    /**
+     * Attempts sent again, a call retried once is counted once
+     */
+    @Override
+    public long getRetriedCalls() {
+        return retriedCalls.get();
+    }
+    
+    @Override
+    public List<EndpointSnapshot> getEndpoints() {
+        return snapshot();
+    }
+    
+    @Nullable
+    public EndpointStats getEndpoint(@NotNull String host, @NotNull String method) {
+        ConcurrentMap<String, EndpointStats> methods = endpoints.get(host);
+        return methods != null ? methods.get(method) : null;
+    }
+    
+    @NotNull
+    public List<EndpointSnapshot> snapshot() {
+        List<EndpointSnapshot> snapshots = new ArrayList<>();
+        endpoints.values().forEach(methods -> methods.values().forEach(stats -> snapshots.add(stats.snapshot())));
+        return snapshots;
+    }
+    
+    /**
+     * Register the statistics in the platform MBean server
+     *
+     * @param name distinguishes statistics of different call factories
+     */
+    @NotNull
+    public ObjectName registerMBean(@NotNull String name) throws JMException {
+        return Platform.registerMBean(this, "CallStats", name);
+    }
+    
+    private EndpointStats endpointOf(Request request) {
+        String host = request.url().host();
+        // without Retrofit calls are recorded per HTTP method
+        String method = Platform.INVOCATION_SUPPORTED ? ServiceMethodNames.lookup(serviceMethods, request) : null;
+        if (method == null) {
+            method = request.method();
+        }
+        // plain lookups first, a capturing lambda would allocate on every call
+        ConcurrentMap<String, EndpointStats> methods = endpoints.get(host);
+        if (methods == null) {
+            methods = endpoints.computeIfAbsent(host, key -> new ConcurrentHashMap<>());
+        }
+        EndpointStats stats = methods.get(method);
+        if (stats == null) {
+            stats = methods.computeIfAbsent(method, key -> new EndpointStats(host, key));
+        }
+        return stats;
+    }
+}
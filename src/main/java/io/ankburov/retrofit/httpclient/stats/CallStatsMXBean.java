@@ -0,0 +1,23 @@
+package io.ankburov.retrofit.httpclient.stats;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link CallStats}
+ */
+public interface CallStatsMXBean {
+    
+    long getInFlightCalls();
+    
+    long getCallbackQueueDepth();
+    
+    long getCompletedCalls();
+    
+    long getFailedCalls();
+    
+    long getCanceledCalls();
+    
+    long getRetriedCalls();
+    
+    List<EndpointSnapshot> getEndpoints();
+}
@@ -0,0 +1,92 @@
+package io.ankburov.retrofit.httpclient.stats;
+
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Point in time copy of {@link EndpointStats}, latencies are in milliseconds
+ */
+public class EndpointSnapshot {
+    
+    @NotNull
+    private final String host;
+    
+    @NotNull
+    private final String method;
+    
+    private final long calls;
+    private final long failures;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p90Millis;
+    private final double p99Millis;
+    private final double p999Millis;
+    private final double maxMillis;
+    
+    @NotNull
+    private final Map<Integer, Long> statusCounts;
+    
+    public EndpointSnapshot(@NotNull String host, @NotNull String method, long calls, long failures, double meanMillis,
+                            double p50Millis, double p90Millis, double p99Millis, double p999Millis, double maxMillis,
+                            @NotNull Map<Integer, Long> statusCounts) {
+        this.host = host;
+        this.method = method;
+        this.calls = calls;
+        this.failures = failures;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p90Millis = p90Millis;
+        this.p99Millis = p99Millis;
+        this.p999Millis = p999Millis;
+        this.maxMillis = maxMillis;
+        this.statusCounts = Map.copyOf(statusCounts);
+    }
+    
+    @NotNull
+    public String getHost() {
+        return host;
+    }
+    
+    @NotNull
+    public String getMethod() {
+        return method;
+    }
+    
+    public long getCalls() {
+        return calls;
+    }
+    
+    public long getFailures() {
+        return failures;
+    }
+    
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+    
+    public double getP50Millis() {
+        return p50Millis;
+    }
+    
+    public double getP90Millis() {
+        return p90Millis;
+    }
+    
+    public double getP99Millis() {
+        return p99Millis;
+    }
+    
+    public double getP999Millis() {
+        return p999Millis;
+    }
+    
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+    
+    @NotNull
+    public Map<Integer, Long> getStatusCounts() {
+        return statusCounts;
+    }
+}
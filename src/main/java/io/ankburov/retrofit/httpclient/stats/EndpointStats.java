@@ -0,0 +1,93 @@
+package io.ankburov.retrofit.httpclient.stats;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Counters of a single host and method pair, the method is a Retrofit service method or an HTTP method
+ */
+public class EndpointStats {
+    
+    private static final int MAX_STATUS_CODE = 599;
+    
+    @NotNull
+    private final String host;
+    
+    @NotNull
+    private final String method;
+    
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS_CODE + 1);
+    private final AtomicLong failures = new AtomicLong();
+    
+    EndpointStats(@NotNull String host, @NotNull String method) {
+        this.host = host;
+        this.method = method;
+    }
+    
+    void recordResponse(int statusCode, long durationNanos) {
+        latency.record(durationNanos);
+        if (statusCode >= 0 && statusCode <= MAX_STATUS_CODE) {
+            statusCounts.incrementAndGet(statusCode);
+        }
+    }
+    
+    void recordFailure(long durationNanos) {
+        latency.record(durationNanos);
+        failures.incrementAndGet();
+    }
+    
+    @NotNull
+    public String getHost() {
+        return host;
+    }
+    
+    @NotNull
+    public String getMethod() {
+        return method;
+    }
+    
+    /**
+     * Latency of both successful and failed calls
+     */
+    @NotNull
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+    
+    public long getStatusCount(int statusCode) {
+        return statusCode >= 0 && statusCode <= MAX_STATUS_CODE ? statusCounts.get(statusCode) : 0;
+    }
+    
+    public long getFailures() {
+        return failures.get();
+    }
+    
+    @NotNull
+    public EndpointSnapshot snapshot() {
+        Map<Integer, Long> statuses = new TreeMap<>();
+        for (int statusCode = 0; statusCode <= MAX_STATUS_CODE; statusCode++) {
+            long count = statusCounts.get(statusCode);
+            if (count != 0) {
+                statuses.put(statusCode, count);
+            }
+        }
+        return new EndpointSnapshot(host, method, latency.getCount(), failures.get(),
+                toMillis(latency.getMeanNanos()),
+                toMillis(latency.getValueAtPercentile(50)),
+                toMillis(latency.getValueAtPercentile(90)),
+                toMillis(latency.getValueAtPercentile(99)),
+                toMillis(latency.getValueAtPercentile(99.9)),
+                toMillis(latency.getMaxNanos()),
+                statuses);
+    }
+    
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
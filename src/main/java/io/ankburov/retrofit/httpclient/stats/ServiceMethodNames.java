@@ -0,0 +1,38 @@
+package io.ankburov.retrofit.httpclient.stats;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import okhttp3.Request;
+import retrofit2.Invocation;
+
+/**
+ * Names Retrofit service methods like {@code GitHubService.listRepos}, Retrofit classes are not loaded if Retrofit
+ * is absent
+ */
+final class ServiceMethodNames {
+    
+    private ServiceMethodNames() {
+    }
+    
+    /**
+     * @return name of the service method the request is created by, null for non-Retrofit requests
+     */
+    @Nullable
+    static String lookup(@NotNull ConcurrentMap<Method, String> names, @NotNull Request request) {
+        Invocation invocation = request.tag(Invocation.class);
+        if (invocation == null) {
+            return null;
+        }
+        Method method = invocation.method();
+        String name = names.get(method);
+        if (name == null) {
+            name = method.getDeclaringClass().getSimpleName() + '.' + method.getName();
+            names.putIfAbsent(method, name);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,179 @@
+package io.ankburov.retrofit.httpclient;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.http.HttpClient;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import io.ankburov.retrofit.httpclient.stub.StubResponse;
+import io.ankburov.retrofit.httpclient.stub.StubServer;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Guards the hot path against regressions in bytes allocated per call and in threads created per call
+ * <p>
+ * Limits are generous on purpose, they catch a copy of the body or a thread per call rather than a few objects.
+ * Most of the bytes allocated by a call are allocated by Http Client itself, their amount varies by JDK version
+ */
+public class HttpClientRetrofitCallFactoryAllocationTest {
+    
+    private static final int WARM_UP_CALLS = 500;
+    private static final int MEASURED_CALLS = 1000;
+    private static final int CONCURRENT_CALLS = 200;
+    
+    private static final long MAX_BYTES_PER_CALL = 64 * 1024;
+    /**
+     * JIT compiler threads come and go on their own
+     */
+    private static final int MAX_THREAD_GROWTH = 20;
+    
+    private static final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    
+    private static StubServer server;
+    
+    private static HttpClientRetrofitCallFactory callFactory;
+    
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        
+        // both sides of the loopback and the callbacks have fixed thread pools, so any thread growth comes from
+        // the calls, and no thread allocating on behalf of the calls exits before it is measured
+        server = StubServer.start(4)
+                .stub("/info", StubResponse.builder()
+                        .withBody("{\"status\":\"ok\"}")
+                        .build());
+        HttpClient httpClient = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(4, daemonThreads("http-client")))
+                .build();
+        callFactory = HttpClientRetrofitCallFactory.builder(httpClient)
+                .withAsyncCallbackExecutor(Executors.newFixedThreadPool(2, daemonThreads("callback")))
+                .build();
+    }
+    
+    @AfterClass
+    public static void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+    }
+    
+    @Test
+    public void testExecuteAllocation() throws IOException {
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            execute();
+        }
+        
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            execute();
+        }
+        long bytesPerCall = (allocatedBytes() - allocatedBefore) / MEASURED_CALLS;
+        
+        assertThat(bytesPerCall, lessThan(MAX_BYTES_PER_CALL));
+    }
+    
+    @Test
+    public void testEnqueueAllocationAndThreads() throws InterruptedException {
+        enqueue(WARM_UP_CALLS);
+        
+        int threadsBefore = threadMXBean.getThreadCount();
+        threadMXBean.resetPeakThreadCount();
+        long allocatedBefore = allocatedBytes();
+        enqueue(MEASURED_CALLS);
+        long bytesPerCall = (allocatedBytes() - allocatedBefore) / MEASURED_CALLS;
+        
+        assertThat(bytesPerCall, lessThan(MAX_BYTES_PER_CALL));
+        // a thread per call would grow by the number of concurrent calls
+        assertThat(threadMXBean.getPeakThreadCount() - threadsBefore, lessThan(MAX_THREAD_GROWTH));
+    }
+    
+    private static void execute() throws IOException {
+        try (Response response = callFactory.newCall(request()).execute()) {
+            response.body().string();
+        }
+    }
+    
+    /**
+     * Sends the calls in waves of concurrent calls
+     */
+    private static void enqueue(int calls) throws InterruptedException {
+        for (int sent = 0; sent < calls; sent += CONCURRENT_CALLS) {
+            CountDownLatch latch = new CountDownLatch(CONCURRENT_CALLS);
+            AtomicInteger failures = new AtomicInteger();
+            for (int i = 0; i < CONCURRENT_CALLS; i++) {
+                callFactory.newCall(request()).enqueue(new Callback() {
+                    @Override
+                    public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
+                        try (response) {
+                            response.body().string();
+                        }
+                        latch.countDown();
+                    }
+                    
+                    @Override
+                    public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                        failures.incrementAndGet();
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertThat(failures.get(), lessThan(1));
+        }
+    }
+    
+    /**
+     * Bytes allocated by all live threads except the stub server ones, Http Client and callback threads allocate
+     * on behalf of the calls too. Bytes of threads exited meanwhile are lost, so the test pins both pools
+     */
+    private static long allocatedBytes() {
+        long allocated = 0;
+        for (ThreadInfo threadInfo : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds())) {
+            if (threadInfo == null || isServerThread(threadInfo.getThreadName())) {
+                continue;
+            }
+            allocated += Math.max(threadMXBean.getThreadAllocatedBytes(threadInfo.getThreadId()), 0);
+        }
+        return allocated;
+    }
+    
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    private static boolean isServerThread(String name) {
+        return name.startsWith("stub-server") || name.startsWith("HTTP-Dispatcher");
+    }
+    
+    private static Request request() {
+        return new Request.Builder()
+                .url(server.baseUrl() + "/info")
+                .build();
+    }
+}
@@ -3,27 +3,44 @@ package io.ankburov.retrofit.httpclient;
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.matching;
 import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.ConnectException;
 import java.net.http.HttpClient;
 import java.net.http.HttpTimeoutException;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import javax.management.ObjectName;
+
 import org.jetbrains.annotations.NotNull;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -35,6 +52,9 @@ import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 
 import io.ankburov.retrofit.httpclient.adapter.TestRetrofitAdapter;
 import io.ankburov.retrofit.httpclient.interceptor.TestInterceptor;
+import io.ankburov.retrofit.httpclient.stats.CallStats;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.Callback;
@@ -206,6 +226,611 @@ public class HttpClientRetrofitCallFactoryAsyncTest {
         Assert.fail();
     }
     
+    @Test
+    public void testAsyncInterceptorThrows() {
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public okhttp3.Request onRequest(@NotNull okhttp3.Request request) {
+                        throw new IllegalStateException("interceptor failed");
+                    }
+                })
+                .build();
+        
+        CompletableFuture<IOException> failure = new CompletableFuture<>();
+        drainingCall(callFactory).enqueue(new okhttp3.Callback() {
+            @Override
+            public void onResponse(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response) {
+                response.close();
+                failure.complete(null);
+            }
+            
+            @Override
+            public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+                failure.complete(e);
+            }
+        });
+        
+        IOException exception = failure.join();
+        assertThat(exception, instanceOf(HttpFactoryException.class));
+        assertThat(exception.getCause(), instanceOf(IllegalStateException.class));
+        // the failed call is finished, so the factory terminates
+        assertEquals(0, callFactory.getInFlightCalls());
+        callFactory.shutdown();
+        assertTrue(callFactory.isShutdown());
+    }
+    
+    @Test
+    public void testPriorityDispatch() throws InterruptedException {
+        wireMock.stubFor(get("/rest/info/prioritized")
+                .willReturn(
+                        aResponse()
+                                .withFixedDelay(WIREMOCK_RESPONSE_DELAY / 5)
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withMaxConcurrentCalls(1)
+                .withAsyncCallbackExecutor(new PriorityCallbackExecutor(1))
+                .build();
+        
+        List<String> completed = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(4);
+        okhttp3.Callback callback = new okhttp3.Callback() {
+            @Override
+            public void onResponse(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response) {
+                response.close();
+                completed.add(call.request().header("name"));
+                latch.countDown();
+            }
+            
+            @Override
+            public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+                latch.countDown();
+            }
+        };
+        
+        prioritizedCall(callFactory, "running", CallPriority.LOW).enqueue(callback);
+        prioritizedCall(callFactory, "low", CallPriority.LOW).enqueue(callback);
+        okhttp3.Call canceled = prioritizedCall(callFactory, "canceled", CallPriority.LOW);
+        canceled.enqueue(callback);
+        prioritizedCall(callFactory, "normal", CallPriority.NORMAL).enqueue(callback);
+        prioritizedCall(callFactory, "high", CallPriority.HIGH).enqueue(callback);
+        
+        assertEquals(4, callFactory.getQueuedCalls());
+        canceled.cancel();
+        assertTrue(canceled.isCanceled());
+        assertEquals(3, callFactory.getQueuedCalls());
+        
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of("running", "high", "normal", "low"), completed);
+        assertEquals(0, callFactory.getRunningCalls());
+    }
+    
+    @Test
+    public void testDispatcherSkipsUnsentCalls() throws InterruptedException {
+        wireMock.stubFor(get("/rest/info/draining")
+                .willReturn(
+                        aResponse()
+                                .withFixedDelay(WIREMOCK_RESPONSE_DELAY / 5)
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withMaxConcurrentCalls(1)
+                .build();
+        
+        // queued calls failing before they are sent release the slot at once, they must not recurse
+        int expiredCalls = 20_000;
+        Deadline expired = Deadline.after(Duration.ZERO);
+        AtomicInteger timeouts = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(expiredCalls + 1);
+        okhttp3.Callback callback = new okhttp3.Callback() {
+            @Override
+            public void onResponse(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response) {
+                response.close();
+                latch.countDown();
+            }
+            
+            @Override
+            public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+                if (e instanceof HttpTimeoutException) {
+                    timeouts.incrementAndGet();
+                }
+                latch.countDown();
+            }
+        };
+        drainingCall(callFactory).enqueue(callback);
+        for (int i = 0; i < expiredCalls; i++) {
+            callFactory.newCall(new okhttp3.Request.Builder()
+                    .url(wireMock.baseUrl() + "/rest/info/draining")
+                    .tag(Deadline.class, expired)
+                    .build())
+                    .enqueue(callback);
+        }
+        
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(expiredCalls, timeouts.get());
+        assertEquals(0, callFactory.getRunningCalls());
+    }
+    
+    @Test
+    public void testDeadline() throws IOException {
+        wireMock.stubFor(get("/rest/info/deadline?detailed=true")
+                .withHeader("X-Deadline-Ms", matching("\\d+"))
+                .willReturn(
+                        aResponse()
+                                .withFixedDelay(WIREMOCK_RESPONSE_DELAY)
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withTimeout(Duration.ofMillis(WIREMOCK_RESPONSE_DELAY * 5))
+                .withDeadlinePropagation("X-Deadline-Ms")
+                .build();
+        TestRetrofitAdapter retrofitAdapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        
+        Deadline.after(Duration.ofMillis(WIREMOCK_RESPONSE_DELAY / 4)).call(() -> {
+            long start = System.nanoTime();
+            try {
+                retrofitAdapter.getInfo("deadline", true).execute();
+                Assert.fail();
+            } catch (HttpTimeoutException e) {
+                assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan((long) WIREMOCK_RESPONSE_DELAY));
+            }
+            wireMock.verify(1, getRequestedFor(urlEqualTo("/rest/info/deadline?detailed=true")));
+            
+            // the deadline has passed, the call is not sent at all
+            try {
+                retrofitAdapter.getInfo("deadline", true).execute();
+                Assert.fail();
+            } catch (HttpTimeoutException e) {
+                wireMock.verify(1, getRequestedFor(urlEqualTo("/rest/info/deadline?detailed=true")));
+            }
+            return null;
+        });
+        assertNull(Deadline.current());
+    }
+    
+    @Test
+    public void testGracefulShutdown() throws InterruptedException {
+        wireMock.stubFor(get("/rest/info/draining")
+                .willReturn(
+                        aResponse()
+                                .withFixedDelay(WIREMOCK_RESPONSE_DELAY / 2)
+                ));
+        
+        ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withAsyncCallbackExecutor(callbackExecutor)
+                .build();
+        
+        List<Integer> completed = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        okhttp3.Callback callback = new okhttp3.Callback() {
+            @Override
+            public void onResponse(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response) {
+                response.close();
+                completed.add(response.code());
+                latch.countDown();
+            }
+            
+            @Override
+            public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+                latch.countDown();
+            }
+        };
+        drainingCall(callFactory).enqueue(callback);
+        drainingCall(callFactory).enqueue(callback);
+        assertEquals(2, callFactory.getInFlightCalls());
+        
+        callFactory.shutdown();
+        // callbacks of calls in flight still run once their executor is gone
+        callbackExecutor.shutdown();
+        assertTrue(callFactory.isShutdown());
+        assertFalse(callFactory.awaitTermination(Duration.ZERO));
+        
+        try {
+            drainingCall(callFactory).execute();
+            Assert.fail();
+        } catch (CallRejectedException expected) {
+            // new calls are not accepted
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        
+        assertTrue(callFactory.awaitTermination(Duration.ofSeconds(10)));
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(List.of(200, 200), completed);
+        assertEquals(0, callFactory.getInFlightCalls());
+    }
+    
+    @Test
+    public void testShutdownNow() throws InterruptedException {
+        wireMock.stubFor(get("/rest/info/draining")
+                .willReturn(
+                        aResponse()
+                                .withFixedDelay(WIREMOCK_RESPONSE_DELAY)
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withMaxConcurrentCalls(1)
+                .build();
+        
+        List<String> results = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        okhttp3.Callback callback = new okhttp3.Callback() {
+            @Override
+            public void onResponse(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response) {
+                response.close();
+                results.add("response");
+                latch.countDown();
+            }
+            
+            @Override
+            public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+                results.add(e.getMessage());
+                latch.countDown();
+            }
+        };
+        drainingCall(callFactory).enqueue(callback);
+        drainingCall(callFactory).enqueue(callback);
+        assertEquals(1, callFactory.getQueuedCalls());
+        
+        long start = System.nanoTime();
+        assertEquals(2, callFactory.shutdownNow());
+        assertTrue(callFactory.awaitTermination(Duration.ofSeconds(1)));
+        // canceled calls fail their callbacks, the running one and the queued one
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan((long) WIREMOCK_RESPONSE_DELAY));
+        assertEquals(List.of("Canceled", "Canceled"), results);
+        assertEquals(0, callFactory.getQueuedCalls());
+    }
+    
+    @Test
+    public void testBatching() throws InterruptedException {
+        wireMock.stubFor(post("/rest/lookup-batch")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBody("[{\"id\": 1}, \"a, ]b\\\"\", [2, {\"id\": 3}]]")
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withBatching(BatchCodec.JSON_ARRAY)
+                .withDeadlinePropagation("X-Deadline-Ms")
+                .build();
+        TestRetrofitAdapter adapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        
+        String[] bodies = new String[3];
+        CountDownLatch latch = new CountDownLatch(bodies.length);
+        for (int i = 0; i < bodies.length; i++) {
+            int index = i;
+            RequestBody body = RequestBody.create("{\"id\":" + i + "}", MediaType.get("application/json"));
+            // the batch takes the deadline of any of its calls
+            Deadline.Scope scope = i == 1 ? Deadline.after(Duration.ofMinutes(1)).attach() : null;
+            try {
+                adapter.lookup(body).enqueue(new Callback<>() {
+                    @Override
+                    public void onResponse(@NotNull Call<ResponseBody> call, @NotNull Response<ResponseBody> response) {
+                        bodies[index] = getString(response.body());
+                        latch.countDown();
+                    }
+                    
+                    @Override
+                    public void onFailure(@NotNull Call<ResponseBody> call, @NotNull Throwable t) {
+                        latch.countDown();
+                    }
+                });
+            } finally {
+                if (scope != null) {
+                    scope.close();
+                }
+            }
+        }
+        
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(new String[]{"{\"id\": 1}", "\"a, ]b\\\"\"", "[2, {\"id\": 3}]"}, bodies);
+        wireMock.verify(1, postRequestedFor(urlEqualTo("/rest/lookup-batch"))
+                .withHeader("X-Deadline-Ms", matching("\\d+"))
+                .withRequestBody(equalTo("[{\"id\":0},{\"id\":1},{\"id\":2}]")));
+        wireMock.verify(0, postRequestedFor(urlEqualTo("/rest/lookup")));
+        assertEquals(0, callFactory.getInFlightCalls());
+    }
+    
+    @Test
+    public void testBatchFullAndWindowOver() throws InterruptedException {
+        wireMock.stubFor(post("/rest/batch/window/batch")
+                .withRequestBody(equalTo("[{\"id\":0},{\"id\":1},{\"id\":2}]"))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBody("[0, 1, 2]")
+                ));
+        wireMock.stubFor(post("/rest/batch/window/batch")
+                .withRequestBody(equalTo("[{\"id\":3}]"))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBody("[3]")
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withBatching(BatchCodec.JSON_ARRAY)
+                .build();
+        TestRetrofitAdapter adapter = createBatchingAdapter(callFactory);
+        
+        String[] results = new String[4];
+        CountDownLatch fullBatch = new CountDownLatch(3);
+        CountDownLatch windowOver = new CountDownLatch(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < results.length; i++) {
+            enqueueBatched(adapter, "window", i, results, i < 3 ? fullBatch : windowOver);
+        }
+        
+        // the full batch is sent at once, the last call waits for the window of 500 ms
+        assertTrue(fullBatch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, windowOver.getCount());
+        assertTrue(windowOver.await(5, TimeUnit.SECONDS));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThan(499L));
+        assertArrayEquals(new String[]{"0", "1", "2", "3"}, results);
+        wireMock.verify(2, postRequestedFor(urlEqualTo("/rest/batch/window/batch")));
+        assertEquals(0, callFactory.getInFlightCalls());
+    }
+    
+    @Test
+    public void testBatchNotSuccessful() throws InterruptedException {
+        wireMock.stubFor(post("/rest/batch/unavailable/batch")
+                .willReturn(
+                        aResponse()
+                                .withStatus(503)
+                                .withBody("try later")
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withBatching(BatchCodec.JSON_ARRAY)
+                .build();
+        TestRetrofitAdapter adapter = createBatchingAdapter(callFactory);
+        
+        String[] results = new String[3];
+        CountDownLatch latch = new CountDownLatch(results.length);
+        for (int i = 0; i < results.length; i++) {
+            enqueueBatched(adapter, "unavailable", i, results, latch);
+        }
+        
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        // every call gets the whole response
+        assertArrayEquals(new String[]{"503 try later", "503 try later", "503 try later"}, results);
+        assertEquals(0, callFactory.getInFlightCalls());
+    }
+    
+    @Test
+    public void testBatchSplit() throws InterruptedException {
+        // escaped quotes and backslashes do not end the strings, commas and brackets in strings do not split items
+        assertBatchResults("escaped", "[\"a\\\\\", \"b\\\",]\", {\"c\": \"]\"}]",
+                "\"a\\\\\"", "\"b\\\",]\"", "{\"c\": \"]\"}");
+        
+        String tooFew = "IOException: Batch response has 2 items, expected 3";
+        assertBatchResults("too-few", "[0, 1]", tooFew, tooFew, tooFew);
+        
+        // the escaped quote leaves the last string open
+        String unterminated = "IOException: Batch response is not a JSON array";
+        assertBatchResults("unterminated", "[\"a\", \"b\", \"c\\\"]", unterminated, unterminated, unterminated);
+    }
+    
+    private void assertBatchResults(String scenario, String responseBody, String... expected)
+            throws InterruptedException {
+        wireMock.stubFor(post("/rest/batch/" + scenario + "/batch")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBody(responseBody)
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withBatching(BatchCodec.JSON_ARRAY)
+                .build();
+        TestRetrofitAdapter adapter = createBatchingAdapter(callFactory);
+        
+        String[] results = new String[expected.length];
+        CountDownLatch latch = new CountDownLatch(results.length);
+        for (int i = 0; i < results.length; i++) {
+            enqueueBatched(adapter, scenario, i, results, latch);
+        }
+        
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(expected, results);
+        assertEquals(0, callFactory.getInFlightCalls());
+    }
+    
+    @Test
+    public void testBatchCallCanceled() throws InterruptedException {
+        wireMock.stubFor(post("/rest/batch/canceled/batch")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBody("[0, 1, 2]")
+                                .withFixedDelay(WIREMOCK_RESPONSE_DELAY / 2)
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withBatching(BatchCodec.JSON_ARRAY)
+                .build();
+        TestRetrofitAdapter adapter = createBatchingAdapter(callFactory);
+        
+        String[] results = new String[3];
+        CountDownLatch latch = new CountDownLatch(results.length - 1);
+        List<Call<ResponseBody>> calls = IntStream.range(0, results.length)
+                .mapToObj(i -> enqueueBatched(adapter, "canceled", i, results, latch))
+                .collect(Collectors.toList());
+        // the full batch is in flight, only the response of the canceled call is discarded
+        calls.get(1).cancel();
+        
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(new String[]{"0", null, "2"}, results);
+        assertTrue(calls.get(1).isCanceled());
+        wireMock.verify(1, postRequestedFor(urlEqualTo("/rest/batch/canceled/batch")));
+        assertEquals(0, callFactory.getInFlightCalls());
+    }
+    
+    @Test
+    public void testBatchingAfterShutdown() throws InterruptedException {
+        wireMock.stubFor(post("/rest/batch/shutdown/batch")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBody("[0, 1]")
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withBatching(BatchCodec.JSON_ARRAY)
+                .build();
+        TestRetrofitAdapter adapter = createBatchingAdapter(callFactory);
+        
+        String[] results = new String[2];
+        CountDownLatch latch = new CountDownLatch(results.length);
+        for (int i = 0; i < results.length; i++) {
+            enqueueBatched(adapter, "shutdown", i, results, latch);
+        }
+        // the batch window is not over yet, the accepted calls are still sent as a batch
+        callFactory.shutdown();
+        
+        assertTrue(callFactory.awaitTermination(Duration.ofSeconds(5)));
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertArrayEquals(new String[]{"0", "1"}, results);
+        wireMock.verify(1, postRequestedFor(urlEqualTo("/rest/batch/shutdown/batch")));
+    }
+    
+    @Test
+    public void testCallbackExecutor() throws Exception {
+        wireMock.stubFor(get("/rest/info/dribble")
+                .willReturn(
+                        aResponse()
+                                .withBody("0123456789")
+                                .withChunkedDribbleDelay(5, WIREMOCK_RESPONSE_DELAY / 2)
+                ));
+        
+        CallbackExecutor executor = CallbackExecutor.builder()
+                .withParallelism(1)
+                .withMaxBlockedThreads(8)
+                .build();
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withAsyncCallbackExecutor(executor)
+                .build();
+        
+        int calls = 4;
+        List<String> bodies = new CopyOnWriteArrayList<>();
+        AtomicInteger maxPoolSize = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(calls);
+        okhttp3.Callback readingCallback = new okhttp3.Callback() {
+            @Override
+            public void onResponse(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response) throws IOException {
+                maxPoolSize.accumulateAndGet(executor.getPoolSize(), Math::max);
+                // blocks the callback thread until the whole body is received
+                bodies.add(response.body().string());
+                latch.countDown();
+            }
+            
+            @Override
+            public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+                latch.countDown();
+            }
+        };
+        for (int i = 0; i < calls; i++) {
+            callFactory.newCall(new okhttp3.Request.Builder()
+                    .url(wireMock.baseUrl() + "/rest/info/dribble")
+                    .build())
+                    .enqueue(readingCallback);
+        }
+        
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // tasks are recorded once the callbacks return
+        assertTrue(executor.awaitQuiescence(Duration.ofSeconds(5)));
+        assertEquals(Collections.nCopies(calls, "0123456789"), bodies);
+        // blocked callback threads were compensated by spare ones
+        assertThat(executor.getBlockingCalls(), greaterThan(0L));
+        assertThat(maxPoolSize.get(), greaterThan(1));
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(0, executor.getBlockedThreads());
+        
+        ObjectName objectName = executor.registerMBean("testCallbackExecutor");
+        try {
+            assertEquals((long) calls, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "CompletedTasks"));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        
+        callFactory.shutdown();
+        executor.shutdown();
+    }
+    
+    @Test
+    public void testCallbackExecutorOverflow() throws InterruptedException {
+        wireMock.stubFor(get("/rest/info/overflow")
+                .willReturn(
+                        aResponse()
+                                .withBody("overflow")
+                ));
+        
+        CallbackExecutor executor = CallbackExecutor.builder()
+                .withParallelism(1)
+                .withMaxQueuedTasks(0)
+                .withOverflowPolicy(CallbackExecutor.OverflowPolicy.REJECT)
+                .build();
+        CallStats callStats = new CallStats();
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withAsyncCallbackExecutor(executor)
+                .addEventListener(callStats)
+                .build();
+        
+        AtomicInteger failures = new AtomicInteger();
+        CompletableFuture<IOException> failure = new CompletableFuture<>();
+        callFactory.newCall(new okhttp3.Request.Builder()
+                .url(wireMock.baseUrl() + "/rest/info/overflow")
+                .build())
+                .enqueue(new okhttp3.Callback() {
+                    @Override
+                    public void onResponse(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response) {
+                        response.close();
+                        failure.complete(null);
+                    }
+                    
+                    @Override
+                    public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+                        failures.incrementAndGet();
+                        failure.complete(e);
+                    }
+                });
+        
+        assertThat(failure.join(), instanceOf(CallRejectedException.class));
+        assertEquals(1, executor.getOverflowedTasks());
+        assertEquals(0, callFactory.getInFlightCalls());
+        // the rejected callback is reported as dispatched and the call fails once
+        assertEquals(0, callStats.getCallbackQueueDepth());
+        assertEquals(1, callStats.getFailedCalls());
+        assertEquals(1, failures.get());
+        executor.shutdown();
+    }
+    
+    private okhttp3.Call drainingCall(HttpClientRetrofitCallFactory callFactory) {
+        return callFactory.newCall(new okhttp3.Request.Builder()
+                .url(wireMock.baseUrl() + "/rest/info/draining")
+                .build());
+    }
+    
+    private okhttp3.Call prioritizedCall(HttpClientRetrofitCallFactory callFactory, String name, CallPriority priority) {
+        return callFactory.newCall(new okhttp3.Request.Builder()
+                .url(wireMock.baseUrl() + "/rest/info/prioritized")
+                .header("name", name)
+                .tag(CallPriority.class, priority)
+                .build());
+    }
+    
     private TestRetrofitAdapter createRetrofitAdapterSingleThreadedClient(Interceptor... interceptors) {
         return createRetrofitAdapterSingleThreadedClient(null, interceptors);
     }
@@ -240,4 +865,36 @@ public class HttpClientRetrofitCallFactoryAsyncTest {
             throw new RuntimeException(e);
         }
     }
+    
+    private TestRetrofitAdapter createBatchingAdapter(HttpClientRetrofitCallFactory callFactory) {
+        return new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+    }
+    
+    /**
+     * Enqueues a batched call, its result is the body, the status and the body of an error or the failure
+     */
+    private Call<ResponseBody> enqueueBatched(TestRetrofitAdapter adapter, String scenario, int index,
+                                              String[] results, CountDownLatch latch) {
+        RequestBody body = RequestBody.create("{\"id\":" + index + "}", MediaType.get("application/json"));
+        Call<ResponseBody> call = adapter.lookupBatched(scenario, body);
+        call.enqueue(new Callback<>() {
+            @Override
+            public void onResponse(@NotNull Call<ResponseBody> call, @NotNull Response<ResponseBody> response) {
+                results[index] = response.isSuccessful() ?
+                        getString(response.body()) : response.code() + " " + getString(response.errorBody());
+                latch.countDown();
+            }
+            
+            @Override
+            public void onFailure(@NotNull Call<ResponseBody> call, @NotNull Throwable t) {
+                results[index] = t.getClass().getSimpleName() + ": " + t.getMessage();
+                latch.countDown();
+            }
+        });
+        return call;
+    }
 }
@@ -0,0 +1,175 @@
+package io.ankburov.retrofit.httpclient;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+
+import io.ankburov.retrofit.httpclient.adapter.TestRetrofitAdapter;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Retrofit;
+
+public class HttpClientRetrofitCallFactoryFanOutTest {
+    
+    private static WireMockServer wireMock = new WireMockServer(0);
+    
+    private static HttpClientRetrofitCallFactory callFactory;
+    
+    private static TestRetrofitAdapter retrofitAdapter;
+    
+    @BeforeClass
+    public static void setUp() {
+        wireMock.start();
+        
+        callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .build();
+        retrofitAdapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        
+        wireMock.stubFor(get("/rest/info/fast?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withBody("fast")
+                ));
+        wireMock.stubFor(get("/rest/info/slow?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withBody("slow")
+                                .withFixedDelay(2000)
+                ));
+        wireMock.stubFor(get("/rest/info/broken?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withStatus(500)
+                ));
+    }
+    
+    @AfterClass
+    public static void tearDown() {
+        wireMock.stop();
+    }
+    
+    @Test
+    public void testAllResultsInOrder() throws Exception {
+        List<Call<ResponseBody>> calls = List.of("fast", "broken", "fast", "fast", "fast").stream()
+                .map(product -> retrofitAdapter.getInfo(product, true))
+                .collect(Collectors.toList());
+        
+        List<FanOutResult<ResponseBody>> results = callFactory.fanOut(calls, FanOutOptions.builder()
+                .withMaxConcurrency(2)
+                .build())
+                .get(5, TimeUnit.SECONDS);
+        
+        assertEquals(5, results.size());
+        assertTrue(results.get(0).isSuccessful());
+        assertFalse(results.get(1).isSuccessful());
+        assertEquals(500, results.get(1).response().code());
+        for (FanOutResult<ResponseBody> result : results) {
+            if (result.isSuccessful()) {
+                assertEquals("fast", result.response().body().string());
+            }
+        }
+    }
+    
+    @Test
+    public void testFailFast() throws Exception {
+        List<Call<ResponseBody>> calls = List.of(
+                retrofitAdapter.getInfo("slow", true),
+                retrofitAdapter.getInfo("broken", true));
+        
+        long start = System.nanoTime();
+        try {
+            callFactory.fanOut(calls, FanOutOptions.builder()
+                    .withFailFast(true)
+                    .build())
+                    .get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HttpStatusException);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        assertTrue(calls.get(0).isCanceled());
+    }
+    
+    @Test
+    public void testDeadlineWithPartialResults() throws Exception {
+        List<Call<ResponseBody>> calls = List.of(
+                retrofitAdapter.getInfo("fast", true),
+                retrofitAdapter.getInfo("slow", true));
+        
+        List<FanOutResult<ResponseBody>> results = callFactory.fanOut(calls, FanOutOptions.builder()
+                .withTimeout(Duration.ofMillis(500))
+                .build())
+                .get(5, TimeUnit.SECONDS);
+        
+        assertTrue(results.get(0).isSuccessful());
+        assertTrue(results.get(1).failure() instanceof HttpTimeoutException);
+    }
+    
+    @Test
+    public void testDeadlineTimerCanceled() throws Exception {
+        List<Call<ResponseBody>> calls = List.of(retrofitAdapter.getInfo("fast", true));
+        
+        callFactory.fanOut(calls, FanOutOptions.builder()
+                .withTimeout(Duration.ofMinutes(10))
+                .build())
+                .get(5, TimeUnit.SECONDS);
+        
+        // the timer is canceled right after the result is completed
+        BlockingQueue<Runnable> timers = ((ScheduledThreadPoolExecutor) callFactory.scheduler).getQueue();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (!timers.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(timers.isEmpty());
+    }
+    
+    @Test
+    public void testCallsFailingOnEnqueue() throws Exception {
+        HttpClientRetrofitCallFactory shutDownFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .build();
+        shutDownFactory.shutdown();
+        TestRetrofitAdapter adapter = new Retrofit.Builder()
+                .callFactory(shutDownFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        List<Call<ResponseBody>> calls = IntStream.range(0, 20_000)
+                .mapToObj(i -> adapter.getInfo("fast", true))
+                .collect(Collectors.toList());
+        
+        // every call fails in enqueue, the next calls are started in a loop, not recursively
+        List<FanOutResult<ResponseBody>> results = shutDownFactory.fanOut(calls, FanOutOptions.builder()
+                .withMaxConcurrency(1)
+                .build())
+                .get(5, TimeUnit.SECONDS);
+        
+        assertEquals(calls.size(), results.size());
+        for (FanOutResult<ResponseBody> result : results) {
+            assertTrue(result.failure() instanceof CallRejectedException);
+        }
+    }
+}
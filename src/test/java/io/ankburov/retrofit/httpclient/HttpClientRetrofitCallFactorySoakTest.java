@@ -0,0 +1,93 @@
+package io.ankburov.retrofit.httpclient;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import io.ankburov.retrofit.httpclient.load.FixedRateLoad;
+import io.ankburov.retrofit.httpclient.stub.StubResponse;
+import io.ankburov.retrofit.httpclient.stub.StubResponse.Latency;
+import io.ankburov.retrofit.httpclient.stub.StubServer;
+import okhttp3.Call;
+import okhttp3.Request;
+
+/**
+ * Drives the factory at a fixed rate against faulty endpoints and checks that nothing leaks
+ * <p>
+ * Skipped unless a duration is given, like {@code gradle test -Dsoak.duration=PT30M -Dsoak.rate=500}
+ */
+public class HttpClientRetrofitCallFactorySoakTest {
+    
+    private static final String SOAK_DURATION = System.getProperty("soak.duration");
+    private static final int SOAK_RATE = Integer.getInteger("soak.rate", 200);
+    
+    private static final String[] PATHS = {"/fast", "/flaky", "/slow"};
+    
+    private static final int MAX_THREAD_GROWTH = 20;
+    private static final long MAX_HEAP_GROWTH = 64 * 1024 * 1024;
+    
+    @Test
+    public void testSoak() throws Exception {
+        Assume.assumeNotNull(SOAK_DURATION);
+        try (StubServer server = StubServer.start()
+                .stub("/fast", StubResponse.builder()
+                        .withBody("{\"status\":\"ok\"}")
+                        .withLatency(Latency.exponential(Duration.ofMillis(5), Duration.ofMillis(200)))
+                        .build())
+                .stub("/flaky", StubResponse.builder()
+                        .withBody("{\"status\":\"ok\"}")
+                        .withLatency(Latency.uniform(Duration.ofMillis(1), Duration.ofMillis(20)))
+                        .withResetRate(0.05)
+                        .build())
+                .stub("/slow", StubResponse.builder()
+                        .withBody(new byte[4096])
+                        .withSlowBody(1024, Duration.ofMillis(2))
+                        .build())) {
+            
+            HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                    .withTimeout(Duration.ofSeconds(5))
+                    .build();
+            AtomicInteger sequence = new AtomicInteger();
+            Supplier<Call> calls = () -> callFactory.newCall(new Request.Builder()
+                    .url(server.baseUrl() + PATHS[sequence.getAndIncrement() % PATHS.length])
+                    .build());
+            
+            // connections and pools are warmed up before the baseline is taken
+            new FixedRateLoad(SOAK_RATE, Duration.ofSeconds(1)).run(calls, Duration.ofSeconds(10));
+            int baselineThreads = threadCount();
+            long baselineHeap = usedHeapAfterGc();
+            long baselineResets = server.getResets();
+            
+            FixedRateLoad.Result result = new FixedRateLoad(SOAK_RATE, Duration.parse(SOAK_DURATION))
+                    .run(calls, Duration.ofSeconds(30));
+            
+            assertEquals(result.getCalls(), result.getCompleted());
+            assertEquals(0, callFactory.getInFlightCalls());
+            // only dropped connections fail the calls, some of them are retried by Http Client
+            assertThat((long) result.getFailures(), lessThanOrEqualTo(server.getResets() - baselineResets));
+            assertThat(result.percentile(99), lessThan(Duration.ofSeconds(1)));
+            
+            assertThat(threadCount() - baselineThreads, lessThan(MAX_THREAD_GROWTH));
+            assertThat(usedHeapAfterGc() - baselineHeap, lessThan(MAX_HEAP_GROWTH));
+        }
+    }
+    
+    private static int threadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+    
+    private static long usedHeapAfterGc() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
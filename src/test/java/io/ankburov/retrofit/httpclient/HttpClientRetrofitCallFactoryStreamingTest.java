@@ -0,0 +1,238 @@
+package io.ankburov.retrofit.httpclient;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.http.Fault;
+
+import io.ankburov.retrofit.httpclient.adapter.StreamingRetrofitAdapter;
+import reactor.adapter.JdkFlowAdapter;
+import retrofit2.Retrofit;
+
+public class HttpClientRetrofitCallFactoryStreamingTest {
+    
+    private static WireMockServer wireMock = new WireMockServer(0);
+    
+    @BeforeClass
+    public static void setUp() {
+        wireMock.start();
+    }
+    
+    @AfterClass
+    public static void tearDown() {
+        wireMock.stop();
+    }
+    
+    @Test
+    public void testLinesWithReactor() {
+        wireMock.stubFor(get("/rest/stream/ndjson")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/x-ndjson")
+                                .withBody("{\"a\": 1}\n{\"a\": 2}\n{\"a\": 3}\n")
+                ));
+        
+        List<String> lines = JdkFlowAdapter.flowPublisherToFlux(createRetrofitAdapter().lines("ndjson"))
+                .collectList()
+                .block();
+        
+        assertEquals(List.of("{\"a\": 1}", "{\"a\": 2}", "{\"a\": 3}"), lines);
+    }
+    
+    @Test
+    public void testEventsOneByOne() throws InterruptedException {
+        wireMock.stubFor(get("/rest/stream/sse")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "text/event-stream")
+                                .withBody(": comment\n"
+                                        + "id: 1\nevent: greeting\ndata: hello\ndata: world\n\n"
+                                        + "retry: 1000\ndata:second\n\n"
+                                        + "data: incomplete")
+                ));
+        
+        QueueSubscriber<ServerSentEvent> subscriber = new QueueSubscriber<>();
+        createRetrofitAdapter().events("sse").subscribe(subscriber);
+        assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+        
+        subscriber.subscription.request(1);
+        ServerSentEvent first = subscriber.next();
+        assertEquals("1", first.id());
+        assertEquals("greeting", first.event());
+        assertEquals("hello\nworld", first.data());
+        assertNull(first.retry());
+        
+        // nothing is delivered without demand
+        assertNull(subscriber.items.poll(200, TimeUnit.MILLISECONDS));
+        
+        subscriber.subscription.request(1);
+        ServerSentEvent second = subscriber.next();
+        assertEquals("1", second.id());
+        assertEquals("message", second.event());
+        assertEquals("second", second.data());
+        assertEquals(Duration.ofSeconds(1), second.retry());
+        
+        subscriber.subscription.request(1);
+        assertEquals(QueueSubscriber.COMPLETE, subscriber.items.poll(5, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void testNotSuccessfulStatus() throws InterruptedException {
+        wireMock.stubFor(get("/rest/stream/missing")
+                .willReturn(
+                        aResponse()
+                                .withStatus(404)
+                ));
+        
+        QueueSubscriber<String> subscriber = new QueueSubscriber<>();
+        createRetrofitAdapter().lines("missing").subscribe(subscriber);
+        
+        Object signal = subscriber.items.poll(5, TimeUnit.SECONDS);
+        assertTrue(signal instanceof HttpStatusException);
+        assertEquals(404, ((HttpStatusException) signal).code());
+    }
+    
+    @Test
+    public void testDownload() throws Exception {
+        byte[] content = new byte[256 * 1024];
+        new Random(42).nextBytes(content);
+        wireMock.stubFor(get("/rest/download/artifact")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/octet-stream")
+                                .withBody(content)
+                ));
+        
+        Path file = Files.createTempFile("download", ".bin");
+        try {
+            Files.write(file, new byte[content.length * 2]);
+            
+            Path downloaded = createRetrofitAdapter().download("artifact", file).get(5, TimeUnit.SECONDS);
+            
+            assertEquals(file, downloaded);
+            assertArrayEquals(content, Files.readAllBytes(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    @Test
+    public void testDownloadNotSuccessfulStatus() throws Exception {
+        wireMock.stubFor(get("/rest/download/missing")
+                .willReturn(
+                        aResponse()
+                                .withStatus(404)
+                                .withBody("not found")
+                ));
+        
+        Path file = Files.createTempDirectory("download").resolve("missing.bin");
+        try {
+            createRetrofitAdapter().download("missing", file).get(5, TimeUnit.SECONDS);
+            fail("Download must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HttpStatusException);
+            assertFalse(Files.exists(file));
+        } finally {
+            Files.delete(file.getParent());
+        }
+    }
+    
+    @Test
+    public void testDownloadBrokenBody() throws Exception {
+        wireMock.stubFor(get("/rest/download/broken")
+                .willReturn(
+                        aResponse()
+                                .withFault(Fault.MALFORMED_RESPONSE_CHUNK)
+                ));
+        
+        Path file = Files.createTempDirectory("download").resolve("broken.bin");
+        try {
+            createRetrofitAdapter().download("broken", file).get(5, TimeUnit.SECONDS);
+            fail("Download must fail");
+        } catch (ExecutionException e) {
+            // the partially written file is not left behind
+            assertFalse(Files.exists(file));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(file.getParent());
+        }
+    }
+    
+    private StreamingRetrofitAdapter createRetrofitAdapter() {
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .build();
+        
+        Retrofit retrofit = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .addCallAdapterFactory(HttpClientCallAdapterFactory.create())
+                .build();
+        
+        return retrofit.create(StreamingRetrofitAdapter.class);
+    }
+    
+    private static class QueueSubscriber<T> implements Flow.Subscriber<T> {
+        
+        static final Object COMPLETE = new Object();
+        
+        final BlockingQueue<Object> items = new LinkedBlockingQueue<>();
+        
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        
+        volatile Flow.Subscription subscription;
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscribed.countDown();
+        }
+        
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            items.add(throwable);
+        }
+        
+        @Override
+        public void onComplete() {
+            items.add(COMPLETE);
+        }
+        
+        @SuppressWarnings("unchecked")
+        T next() throws InterruptedException {
+            Object item = items.poll(5, TimeUnit.SECONDS);
+            if (item == null || item == COMPLETE || item instanceof Throwable) {
+                fail("Expected an item, got " + item);
+            }
+            return (T) item;
+        }
+    }
+}
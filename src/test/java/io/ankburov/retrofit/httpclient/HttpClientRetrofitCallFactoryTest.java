@@ -2,10 +2,13 @@ package io.ankburov.retrofit.httpclient;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aMultipart;
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.absent;
 import static com.github.tomakehurst.wiremock.client.WireMock.binaryEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.delete;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalToJson;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.post;
 import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
@@ -17,28 +20,71 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.http.HttpClient;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
 
 import io.ankburov.retrofit.httpclient.adapter.TestRetrofitAdapter;
 import io.ankburov.retrofit.httpclient.interceptor.TestInterceptor;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
+import okhttp3.Protocol;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
 import retrofit2.Call;
 import retrofit2.Response;
 import retrofit2.Retrofit;
@@ -79,10 +125,29 @@ public class HttpClientRetrofitCallFactoryTest {
         
         try (ResponseBody body = response.body()) {
             assertNotNull(body);
+            assertEquals(MediaType.get("application/json"), body.contentType());
             assertEquals("{\"answer\": 42}", body.string());
         }
     }
     
+    @Test
+    public void testEmptyBodyContentLength() throws IOException {
+        TestRetrofitAdapter retrofitAdapter = createRetrofitAdapter();
+        
+        wireMock.stubFor(get("/rest/info/empty?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Length", "0")
+                ));
+        
+        Response<ResponseBody> response = retrofitAdapter.getInfo("empty", true).execute();
+        
+        try (ResponseBody body = response.body()) {
+            assertNotNull(body);
+            assertEquals(0, body.contentLength());
+        }
+    }
+    
     @Test
     public void testPost() throws IOException {
         TestRetrofitAdapter retrofitAdapter = createRetrofitAdapter();
@@ -186,6 +251,46 @@ public class HttpClientRetrofitCallFactoryTest {
         }
     }
     
+    @Test
+    public void testPostMultipartFile() throws IOException {
+        TestRetrofitAdapter retrofitAdapter = createRetrofitAdapter();
+        
+        byte[] fileBytes = new byte[64 * 1024];
+        new Random(42).nextBytes(fileBytes);
+        Path file = Files.createTempFile("upload", ".bin");
+        try {
+            Files.write(file, fileBytes);
+            
+            MultipartBody multipartBody = new MultipartBody.Builder("boundary")
+                    .setType(MultipartBody.FORM)
+                    .addFormDataPart("name", "value")
+                    .addFormDataPart("file", "upload.bin", FileRequestBody.create(file, MediaType.get("application/octet-stream")))
+                    .build();
+            
+            wireMock.stubFor(post("/rest/post-with-body")
+                    .withMultipartRequestBody(
+                            aMultipart()
+                                    .withName("file")
+                                    .withBody(binaryEqualTo(fileBytes)))
+                    .willReturn(
+                            aResponse()
+                    ));
+            
+            Response<Void> response = retrofitAdapter.postWithBody(multipartBody).execute();
+            assertTrue(response.isSuccessful());
+            
+            // the same bytes as written by OkHttp itself
+            Buffer expected = new Buffer();
+            multipartBody.writeTo(expected);
+            List<LoggedRequest> requests = wireMock.findAll(postRequestedFor(urlEqualTo("/rest/post-with-body")));
+            LoggedRequest request = requests.get(requests.size() - 1);
+            assertEquals(String.valueOf(expected.size()), request.getHeader("Content-Length"));
+            assertArrayEquals(expected.readByteArray(), request.getBody());
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
     @Test
     public void testGetNotFound() throws IOException {
         TestRetrofitAdapter retrofitAdapter = createRetrofitAdapter();
@@ -301,6 +406,765 @@ public class HttpClientRetrofitCallFactoryTest {
         assertTrue(headerValues.contains("two"));
     }
     
+    @Test
+    public void testInterceptorContext() throws IOException {
+        wireMock.stubFor(post("/rest/post")
+                .willReturn(
+                        aResponse()
+                ));
+        
+        AtomicLong contextValue = new AtomicLong();
+        Interceptor interceptor = new Interceptor() {
+            @Override
+            public okhttp3.Request onRequest(@NotNull okhttp3.Request request, @NotNull CallContext context) {
+                context.put(Long.class, 42L);
+                return request;
+            }
+            
+            @Override
+            public okhttp3.Response onResult(@NotNull okhttp3.Request request, @Nullable okhttp3.Response response,
+                                             @Nullable Throwable throwable, @NotNull CallContext context) {
+                contextValue.set(context.get(Long.class));
+                return response;
+            }
+        };
+        TestRetrofitAdapter retrofitAdapter = createRetrofitAdapter(interceptor, new TestInterceptor());
+        
+        Response<Void> response = retrofitAdapter.post().execute();
+        
+        assertTrue(response.isSuccessful());
+        assertEquals(42L, contextValue.get());
+    }
+    
+    @Test
+    public void testEventListener() throws IOException {
+        wireMock.stubFor(get("/rest/info/main?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBody("{\"answer\": 42}")
+                ));
+    
+        List<String> events = new CopyOnWriteArrayList<>();
+        AtomicLong bodyBytes = new AtomicLong();
+        CallEventListener listener = new CallEventListener() {
+            @Override
+            public void callStart(@NotNull okhttp3.Call call) {
+                events.add("callStart");
+            }
+        
+            @Override
+            public void requestBuilt(@NotNull okhttp3.Call call, long durationNanos) {
+                events.add("requestBuilt");
+            }
+        
+            @Override
+            public void responseHeadersReceived(@NotNull okhttp3.Call call, long durationNanos) {
+                events.add("responseHeadersReceived");
+            }
+        
+            @Override
+            public void callEnd(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response, long durationNanos) {
+                assertTrue(durationNanos > 0);
+                events.add("callEnd");
+            }
+        
+            @Override
+            public void responseBodyClosed(@NotNull okhttp3.Call call, long bytesRead, long durationNanos) {
+                bodyBytes.set(bytesRead);
+                events.add("responseBodyClosed");
+            }
+        };
+    
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .addEventListener(listener)
+                .build();
+    
+        TestRetrofitAdapter retrofitAdapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+    
+        Response<ResponseBody> response = retrofitAdapter.getInfo("main", true).execute();
+        try (ResponseBody body = response.body()) {
+            assertNotNull(body);
+            assertEquals("{\"answer\": 42}", body.string());
+        }
+    
+        assertEquals(List.of("callStart", "requestBuilt", "responseHeadersReceived", "callEnd", "responseBodyClosed"), events);
+        assertEquals("{\"answer\": 42}".length(), bodyBytes.get());
+    }
+    
+    @Test
+    public void testStaticHeadersChangedByInterceptor() throws IOException {
+        wireMock.stubFor(post("/rest/post")
+                .withHeader("custom", absent())
+                .willReturn(
+                        aResponse()
+                                .withStatus(202)
+                ));
+        
+        Interceptor interceptor = new Interceptor() {
+            @Override
+            public okhttp3.Request onRequest(@NotNull okhttp3.Request request) {
+                return request.newBuilder()
+                        .removeHeader("custom")
+                        .build();
+            }
+        };
+        TestRetrofitAdapter retrofitAdapter = createRetrofitAdapter(interceptor);
+        
+        // the first call prepares the method template, the second one must not take headers from it
+        assertEquals(202, retrofitAdapter.postWithHeaders().execute().code());
+        assertEquals(202, retrofitAdapter.postWithHeaders().execute().code());
+    }
+    
+    @Test
+    public void testMethodChangedByInterceptor() throws IOException {
+        wireMock.stubFor(get("/rest/info/method?detailed=true")
+                .willReturn(
+                        aResponse()
+                ));
+        wireMock.stubFor(delete("/rest/info/method?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withStatus(204)
+                ));
+        
+        AtomicInteger calls = new AtomicInteger();
+        Interceptor interceptor = new Interceptor() {
+            @Override
+            public okhttp3.Request onRequest(@NotNull okhttp3.Request request) {
+                return calls.incrementAndGet() == 1 ? request : request.newBuilder()
+                        .method("DELETE", null)
+                        .build();
+            }
+        };
+        TestRetrofitAdapter retrofitAdapter = createRetrofitAdapter(interceptor);
+        
+        // the first call presets GET in the method template, the second one must not be sent with it
+        assertEquals(200, retrofitAdapter.getInfo("method", true).execute().code());
+        assertEquals(204, retrofitAdapter.getInfo("method", true).execute().code());
+    }
+    
+    @Test
+    public void testDecompression() throws IOException {
+        String json = "{\"answer\": 42}";
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        wireMock.stubFor(get("/rest/info/gzipped?detailed=true")
+                .withHeader("Accept-Encoding", equalTo("gzip, deflate"))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withHeader("Content-Encoding", "gzip")
+                                .withBody(gzipped.toByteArray())
+                ));
+        
+        TestRetrofitAdapter retrofitAdapter = createRetrofitAdapter(new DecompressingInterceptor());
+        
+        Response<ResponseBody> response = retrofitAdapter.getInfo("gzipped", true).execute();
+        
+        assertTrue(response.isSuccessful());
+        assertNull(response.headers().get("Content-Encoding"));
+        assertNull(response.headers().get("Content-Length"));
+        try (ResponseBody body = response.body()) {
+            assertNotNull(body);
+            assertEquals(-1, body.contentLength());
+            assertEquals(MediaType.get("application/json"), body.contentType());
+            assertEquals(json, body.string());
+        }
+    }
+    
+    @Test
+    public void testDecompressionDeflate() throws IOException {
+        String json = "{\"answer\": 42}";
+        // raw deflate data without the zlib header, as some servers send it
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(deflated, deflater)) {
+            deflate.write(json.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            deflater.end();
+        }
+        wireMock.stubFor(get("/rest/info/deflated?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Encoding", "deflate")
+                                .withBody(deflated.toByteArray())
+                ));
+        wireMock.stubFor(get("/rest/info/malformed?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Encoding", "gzip")
+                                .withBody("not gzipped")
+                ));
+        
+        TestRetrofitAdapter retrofitAdapter = createRetrofitAdapter(new DecompressingInterceptor());
+        
+        try (ResponseBody body = retrofitAdapter.getInfo("deflated", true).execute().body()) {
+            assertNotNull(body);
+            assertEquals(json, body.string());
+        }
+        // malformed data fails reading the body, not the call
+        try (ResponseBody body = retrofitAdapter.getInfo("malformed", true).execute().body()) {
+            assertNotNull(body);
+            body.string();
+            Assert.fail("Malformed body must not be decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testRequestCompression() throws IOException {
+        wireMock.stubFor(post("/rest/post-with-body")
+                .willReturn(
+                        aResponse()
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withRequestFactory(DefaultHttpRequestFactory.builder()
+                        .withRequestCompression(ContentEncoder.GZIP, 16, request -> "POST".equals(request.method()))
+                        .build())
+                .build();
+        TestRetrofitAdapter retrofitAdapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        
+        String json = "{\"values\": [1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1]}";
+        RequestBody requestBody = RequestBody.create(json.getBytes(StandardCharsets.UTF_8),
+                MediaType.parse("application/json"));
+        RequestBody smallBody = RequestBody.create("{}".getBytes(StandardCharsets.UTF_8),
+                MediaType.parse("application/json"));
+        
+        assertTrue(retrofitAdapter.postWithBody(requestBody).execute().isSuccessful());
+        assertTrue(retrofitAdapter.postWithBody(smallBody).execute().isSuccessful());
+        
+        List<LoggedRequest> requests = wireMock.findAll(postRequestedFor(urlEqualTo("/rest/post-with-body")));
+        LoggedRequest compressed = requests.get(requests.size() - 2);
+        assertEquals("gzip", compressed.getHeader("Content-Encoding"));
+        // the encoded body is buffered, so it is sent with its length
+        assertTrue(compressed.containsHeader("Content-Length"));
+        // WireMock decodes gzipped request bodies
+        assertEquals(json, compressed.getBodyAsString());
+        LoggedRequest uncompressed = requests.get(requests.size() - 1);
+        assertFalse(uncompressed.containsHeader("Content-Encoding"));
+        assertEquals("{}", uncompressed.getBodyAsString());
+    }
+    
+    @Test
+    public void testProtocolPolicy() throws IOException {
+        wireMock.stubFor(get("/rest/info/protocol?detailed=true")
+                .willReturn(
+                        aResponse()
+                ));
+        
+        // urls have lowercase hosts, the policy matches them ignoring case
+        ProtocolPolicy protocolPolicy = ProtocolPolicy.builder()
+                .withDefaultVersion(HttpClient.Version.HTTP_2)
+                .forHost("LocalHost", HttpClient.Version.HTTP_1_1)
+                .build();
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .build())
+                .withRequestFactory(DefaultHttpRequestFactory.builder()
+                        .withProtocolPolicy(protocolPolicy)
+                        .build())
+                .addEventListener(protocolPolicy)
+                .build();
+        TestRetrofitAdapter retrofitAdapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        
+        assertTrue(retrofitAdapter.getInfo("protocol", true).execute().isSuccessful());
+        
+        // HTTP/2 over cleartext would be an h2c upgrade
+        LoggedRequest request = wireMock.findAll(getRequestedFor(urlEqualTo("/rest/info/protocol?detailed=true"))).get(0);
+        assertFalse(request.containsHeader("Upgrade"));
+        assertEquals(Map.of(Protocol.HTTP_1_1, 1L), protocolPolicy.getObservedProtocols("localhost"));
+        assertEquals(Set.of("localhost"), protocolPolicy.getObservedProtocols().keySet());
+        assertEquals(HttpClient.Version.HTTP_2, protocolPolicy.versionOf(HttpUrl.get("http://example.com")));
+    }
+    
+    @Test
+    public void testRestrictedHeaders() throws IOException {
+        wireMock.stubFor(post("/rest/post-with-body")
+                .willReturn(
+                        aResponse()
+                ));
+        TestRetrofitAdapter retrofitAdapter = createRetrofitAdapter();
+        
+        byte[] bytes = "{\"value\": 1}".getBytes(StandardCharsets.UTF_8);
+        // the template stops at Connection, the header after it is sent per request
+        for (int i = 0; i < 2; i++) {
+            assertTrue(retrofitAdapter.postWithRestrictedHeaders(RequestBody.create(bytes)).execute().isSuccessful());
+            
+            List<LoggedRequest> requests = wireMock.findAll(postRequestedFor(urlEqualTo("/rest/post-with-body")));
+            LoggedRequest request = requests.get(requests.size() - 1);
+            assertEquals("value", request.getHeader("custom"));
+            assertEquals("value", request.getHeader("another"));
+        }
+        
+        // HTTP/1.1, so Http Client does not add an h2c upgrade of its own
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build())
+                .build();
+        RequestBody unknownLength = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.parse("application/json");
+            }
+            
+            @Override
+            public void writeTo(@NotNull BufferedSink sink) throws IOException {
+                sink.write(bytes);
+            }
+        };
+        okhttp3.Request request = new okhttp3.Request.Builder()
+                .url(wireMock.baseUrl() + "/rest/post-with-body")
+                .header("Connection", "close")
+                .header("Host", "example.com")
+                .header("Upgrade", "websocket")
+                .header("Content-Length", String.valueOf(bytes.length))
+                .header("custom", "value")
+                .post(unknownLength)
+                .build();
+        try (okhttp3.Response response = callFactory.newCall(request).execute()) {
+            assertTrue(response.isSuccessful());
+        }
+        
+        List<LoggedRequest> requests = wireMock.findAll(postRequestedFor(urlEqualTo("/rest/post-with-body")));
+        LoggedRequest loggedRequest = requests.get(requests.size() - 1);
+        assertEquals("value", loggedRequest.getHeader("custom"));
+        assertFalse(loggedRequest.containsHeader("Upgrade"));
+        assertNotEquals("example.com", loggedRequest.getHeader("Host"));
+        // the declared length is kept instead of chunked encoding
+        assertEquals(String.valueOf(bytes.length), loggedRequest.getHeader("Content-Length"));
+        assertFalse(loggedRequest.containsHeader("Transfer-Encoding"));
+        assertArrayEquals(bytes, loggedRequest.getBody());
+    }
+    
+    @Test
+    public void testExpectContinue() throws Exception {
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build())
+                .withRequestFactory(DefaultHttpRequestFactory.builder()
+                        .withExpectContinue(1024)
+                        .build())
+                .build();
+        
+        try (RejectingServer server = new RejectingServer()) {
+            okhttp3.Request largeUpload = new okhttp3.Request.Builder()
+                    .url("http://localhost:" + server.getPort() + "/upload")
+                    .post(RequestBody.create(new byte[1024 * 1024]))
+                    .build();
+            try (okhttp3.Response response = callFactory.newCall(largeUpload).execute()) {
+                assertEquals(413, response.code());
+            }
+            RejectingServer.Exchange exchange = server.exchanges.take();
+            assertTrue("100-continue".equalsIgnoreCase(exchange.headers.get("expect")));
+            // rejected before a single byte of the body was sent
+            assertEquals(0, exchange.bodyBytes);
+            
+            okhttp3.Request smallUpload = new okhttp3.Request.Builder()
+                    .url("http://localhost:" + server.getPort() + "/upload")
+                    .post(RequestBody.create(new byte[16]))
+                    .build();
+            try (okhttp3.Response response = callFactory.newCall(smallUpload).execute()) {
+                assertEquals(200, response.code());
+            }
+            exchange = server.exchanges.take();
+            assertNull(exchange.headers.get("expect"));
+            assertEquals(16, exchange.bodyBytes);
+        }
+    }
+    
+    @Test
+    public void testTokenAuthenticator() throws Exception {
+        wireMock.stubFor(get("/rest/info/auth?detailed=true")
+                .atPriority(1)
+                .withHeader("Authorization", equalTo("Bearer fresh"))
+                .willReturn(
+                        aResponse()
+                ));
+        wireMock.stubFor(get("/rest/info/auth?detailed=true")
+                .atPriority(2)
+                .willReturn(
+                        aResponse()
+                                .withStatus(401)
+                ));
+        
+        AtomicInteger fetches = new AtomicInteger();
+        AtomicReference<Instant> now = new AtomicReference<>(Instant.now());
+        TokenSource tokenSource = () -> {
+            String value = fetches.incrementAndGet() == 1 ? "stale" : "fresh";
+            return CompletableFuture.supplyAsync(() -> AccessToken.bearer(value, now.get().plus(Duration.ofHours(1))),
+                    CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS));
+        };
+        TokenAuthenticator authenticator = TokenAuthenticator.builder(tokenSource)
+                .withRefreshAhead(Duration.ofMinutes(1))
+                .withClock(new Clock() {
+                    @Override
+                    public ZoneId getZone() {
+                        return ZoneOffset.UTC;
+                    }
+                    
+                    @Override
+                    public Clock withZone(ZoneId zone) {
+                        return this;
+                    }
+                    
+                    @Override
+                    public Instant instant() {
+                        return now.get();
+                    }
+                })
+                .build();
+        AtomicInteger retries = new AtomicInteger();
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withAuthenticator(authenticator)
+                .addEventListener(new CallEventListener() {
+                    @Override
+                    public void callRetried(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response) {
+                        retries.incrementAndGet();
+                    }
+                })
+                .build();
+        TestRetrofitAdapter retrofitAdapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        
+        // concurrent calls share a single fetch, are rejected with the stale token and share a single refresh
+        int calls = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(calls);
+        try {
+            List<Future<Integer>> codes = new ArrayList<>();
+            for (int i = 0; i < calls; i++) {
+                codes.add(executor.submit(() -> retrofitAdapter.getInfo("auth", true).execute().code()));
+            }
+            for (Future<Integer> code : codes) {
+                assertEquals(200, code.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, fetches.get());
+        assertEquals(calls, retries.get());
+        
+        // close to the expiry the current token is still used while a new one is fetched in the background
+        now.set(now.get().plus(Duration.ofMinutes(59).plusSeconds(30)));
+        assertEquals(200, retrofitAdapter.getInfo("auth", true).execute().code());
+        assertEquals(3, fetches.get());
+        assertEquals(calls, retries.get());
+    }
+    
+    @Test
+    public void testTokenAuthenticatorAsync() throws InterruptedException {
+        wireMock.stubFor(get("/rest/info/async-auth")
+                .atPriority(1)
+                .withHeader("Authorization", equalTo("Bearer fresh"))
+                .willReturn(
+                        aResponse()
+                ));
+        wireMock.stubFor(get("/rest/info/async-auth")
+                .atPriority(2)
+                .willReturn(
+                        aResponse()
+                                .withStatus(401)
+                ));
+        
+        // tokens are completed on the only callback thread, a callback blocked waiting for a token would deadlock
+        ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+        AtomicInteger fetches = new AtomicInteger();
+        TokenSource tokenSource = () -> {
+            String value = fetches.incrementAndGet() == 1 ? "stale" : "fresh";
+            return CompletableFuture.supplyAsync(() -> AccessToken.bearer(value, Instant.now().plus(Duration.ofHours(1))),
+                    CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS, callbackExecutor));
+        };
+        TokenAuthenticator authenticator = TokenAuthenticator.builder(tokenSource)
+                .withFetchTimeout(Duration.ofSeconds(2))
+                .build();
+        AtomicInteger retries = new AtomicInteger();
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withAuthenticator(authenticator)
+                .withAsyncCallbackExecutor(callbackExecutor)
+                .withMaxConcurrentCalls(2)
+                .addEventListener(new CallEventListener() {
+                    @Override
+                    public void callRetried(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response) {
+                        retries.incrementAndGet();
+                    }
+                })
+                .build();
+        
+        int calls = 8;
+        List<Integer> codes = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(calls);
+        for (int i = 0; i < calls; i++) {
+            callFactory.newCall(new okhttp3.Request.Builder()
+                    .url(wireMock.baseUrl() + "/rest/info/async-auth")
+                    .build())
+                    .enqueue(new okhttp3.Callback() {
+                        @Override
+                        public void onResponse(@NotNull okhttp3.Call call, @NotNull okhttp3.Response response) {
+                            codes.add(response.code());
+                            latch.countDown();
+                        }
+                        
+                        @Override
+                        public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+                            latch.countDown();
+                        }
+                    });
+        }
+        
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(Collections.nCopies(calls, 200), codes);
+            assertEquals(2, fetches.get());
+            // calls queued by the dispatcher until the refresh are sent with the fresh token right away
+            assertTrue(retries.get() >= 2);
+        } finally {
+            callbackExecutor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testInFlightByteBudget() throws IOException {
+        wireMock.stubFor(get("/rest/info/budget?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Length", "100")
+                                .withBody(new byte[100])
+                ));
+        wireMock.stubFor(post("/rest/post-with-body")
+                .willReturn(
+                        aResponse()
+                ));
+        
+        InFlightByteBudget byteBudget = new InFlightByteBudget(10, Duration.ZERO);
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withInFlightByteBudget(byteBudget)
+                .build();
+        TestRetrofitAdapter retrofitAdapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        RequestBody requestBody = RequestBody.create("{}".getBytes(StandardCharsets.UTF_8),
+                MediaType.parse("application/json"));
+        
+        // a response larger than the budget is admitted, but holds the budget until it is consumed
+        okhttp3.Response response = callFactory.newCall(new okhttp3.Request.Builder()
+                .url(wireMock.baseUrl() + "/rest/info/budget?detailed=true")
+                .build())
+                .execute();
+        assertEquals(100, byteBudget.getBytesInFlight());
+        
+        try {
+            retrofitAdapter.postWithBody(requestBody).execute();
+            Assert.fail("Call must be rejected");
+        } catch (CallRejectedException e) {
+            assertEquals(1, byteBudget.getRejectedCalls());
+        }
+        
+        try (ResponseBody body = response.body()) {
+            assertNotNull(body);
+            assertEquals(100, body.bytes().length);
+        }
+        assertEquals(0, byteBudget.getBytesInFlight());
+        
+        assertTrue(retrofitAdapter.postWithBody(requestBody).execute().isSuccessful());
+        assertEquals(0, byteBudget.getBytesInFlight());
+    }
+    
+    @Test
+    public void testInFlightByteBudgetAsync() throws Exception {
+        wireMock.stubFor(get("/rest/info/budget?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Length", "100")
+                                .withBody(new byte[100])
+                ));
+        wireMock.stubFor(post("/rest/post-with-body")
+                .willReturn(
+                        aResponse()
+                ));
+        
+        InFlightByteBudget byteBudget = new InFlightByteBudget(10, Duration.ofMinutes(1));
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withInFlightByteBudget(byteBudget)
+                .build();
+        TestRetrofitAdapter retrofitAdapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        RequestBody unknownLength = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.parse("application/json");
+            }
+            
+            @Override
+            public void writeTo(@NotNull BufferedSink sink) throws IOException {
+                sink.writeUtf8("{}");
+            }
+        };
+        
+        okhttp3.Response response = callFactory.newCall(new okhttp3.Request.Builder()
+                .url(wireMock.baseUrl() + "/rest/info/budget?detailed=true")
+                .build())
+                .execute();
+        
+        // a body of unknown length is counted once buffered, an asynchronous call does not wait for the budget
+        CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        retrofitAdapter.postWithBody(unknownLength).enqueue(new retrofit2.Callback<Void>() {
+            @Override
+            public void onResponse(@NotNull Call<Void> call, @NotNull Response<Void> response) {
+                failure.complete(null);
+            }
+            
+            @Override
+            public void onFailure(@NotNull Call<Void> call, @NotNull Throwable t) {
+                failure.complete(t);
+            }
+        });
+        assertTrue(failure.get(10, TimeUnit.SECONDS) instanceof CallRejectedException);
+        assertEquals(1, byteBudget.getRejectedCalls());
+        
+        try (ResponseBody body = response.body()) {
+            assertNotNull(body);
+            assertEquals(100, body.bytes().length);
+        }
+        assertTrue(retrofitAdapter.postWithBody(unknownLength).execute().isSuccessful());
+        assertEquals(0, byteBudget.getBytesInFlight());
+        wireMock.verify(postRequestedFor(urlEqualTo("/rest/post-with-body"))
+                .withRequestBody(equalTo("{}")));
+    }
+    
+    /**
+     * Raw HTTP/1.1 server rejecting requests expecting continue with 413 before reading their bodies, like
+     * a proxy with an upload limit
+     */
+    private static class RejectingServer implements AutoCloseable {
+        
+        private final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        
+        private final BlockingQueue<Exchange> exchanges = new LinkedBlockingQueue<>();
+        
+        private RejectingServer() throws IOException {
+            Thread thread = new Thread(this::serve, "rejecting-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+        
+        private void serve() {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    exchanges.add(exchange(socket));
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+        
+        private static Exchange exchange(Socket socket) throws IOException {
+            InputStream input = socket.getInputStream();
+            OutputStream output = socket.getOutputStream();
+            Map<String, String> headers = new HashMap<>();
+            String line = readLine(input); // request line
+            while (!(line = readLine(input)).isEmpty()) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+            
+            long bodyBytes;
+            String status;
+            if ("100-continue".equalsIgnoreCase(headers.get("expect"))) {
+                status = "413 Payload Too Large";
+                output.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                output.flush();
+                // whatever arrives after the rejection was sent in vain
+                socket.setSoTimeout(200);
+                bodyBytes = 0;
+                try {
+                    while (input.read() != -1) {
+                        bodyBytes++;
+                    }
+                } catch (SocketTimeoutException e) {
+                    // nothing more is sent
+                }
+            } else {
+                status = "200 OK";
+                bodyBytes = headers.containsKey("content-length") ?
+                        input.readNBytes(Integer.parseInt(headers.get("content-length"))).length : readChunked(input);
+                output.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                output.flush();
+            }
+            return new Exchange(headers, bodyBytes);
+        }
+        
+        private static long readChunked(InputStream input) throws IOException {
+            long bodyBytes = 0;
+            int chunkSize;
+            while ((chunkSize = Integer.parseInt(readLine(input), 16)) > 0) {
+                bodyBytes += input.readNBytes(chunkSize).length;
+                readLine(input);
+            }
+            readLine(input);
+            return bodyBytes;
+        }
+        
+        private static String readLine(InputStream input) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = input.read()) != '\n') {
+                if (c == -1) {
+                    throw new EOFException();
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+        
+        private static class Exchange {
+            
+            private final Map<String, String> headers;
+            private final long bodyBytes;
+            
+            private Exchange(Map<String, String> headers, long bodyBytes) {
+                this.headers = headers;
+                this.bodyBytes = bodyBytes;
+            }
+        }
+    }
+    
     private TestRetrofitAdapter createRetrofitAdapter(Interceptor... interceptors) {
         HttpClient httpClient = HttpClient.newHttpClient();
     
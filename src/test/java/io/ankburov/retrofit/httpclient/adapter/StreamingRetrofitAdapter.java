@@ -0,0 +1,21 @@
+package io.ankburov.retrofit.httpclient.adapter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import io.ankburov.retrofit.httpclient.ServerSentEvent;
+import retrofit2.http.GET;
+import retrofit2.http.Path;
+import retrofit2.http.Tag;
+
+public interface StreamingRetrofitAdapter {
+    
+    @GET("rest/stream/{name}")
+    Flow.Publisher<String> lines(@Path("name") String name);
+    
+    @GET("rest/stream/{name}")
+    Flow.Publisher<ServerSentEvent> events(@Path("name") String name);
+    
+    @GET("rest/download/{name}")
+    CompletableFuture<java.nio.file.Path> download(@Path("name") String name, @Tag java.nio.file.Path file);
+}
@@ -2,6 +2,7 @@ package io.ankburov.retrofit.httpclient.adapter;
 
 import java.util.concurrent.CompletableFuture;
 
+import io.ankburov.retrofit.httpclient.Batched;
 import okhttp3.MultipartBody;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
@@ -35,6 +36,18 @@ public interface TestRetrofitAdapter {
     @POST("rest/post-with-body")
     Call<Void> postWithBody(@Body RequestBody body);
     
+    @Headers({"custom: value", "Connection: keep-alive", "another: value"})
+    @POST("rest/post-with-body")
+    Call<Void> postWithRestrictedHeaders(@Body RequestBody body);
+    
+    @Batched(windowMillis = 200, url = "lookup-batch")
+    @POST("rest/lookup")
+    Call<ResponseBody> lookup(@Body RequestBody body);
+    
+    @Batched(maxSize = 3, windowMillis = 500, url = "batch")
+    @POST("rest/batch/{scenario}/item")
+    Call<ResponseBody> lookupBatched(@Path("scenario") String scenario, @Body RequestBody body);
+    
     @Multipart
     @POST("rest/post-multipart")
     Call<ResponseBody> postMultiPart(@Part MultipartBody.Part file);
@@ -0,0 +1,96 @@
+package io.ankburov.retrofit.httpclient.jfr;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+
+import io.ankburov.retrofit.httpclient.HttpClientRetrofitCallFactory;
+import io.ankburov.retrofit.httpclient.adapter.TestRetrofitAdapter;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import okhttp3.ResponseBody;
+import retrofit2.Retrofit;
+
+public class JfrCallEventListenerFactoryTest {
+    
+    private static WireMockServer wireMock = new WireMockServer(0);
+    
+    @BeforeClass
+    public static void setUp() {
+        wireMock.start();
+    }
+    
+    @AfterClass
+    public static void tearDown() {
+        wireMock.stop();
+    }
+    
+    @Test
+    public void testEventsAreRecorded() throws IOException {
+        wireMock.stubFor(get("/rest/info/main?detailed=true")
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBody("{\"answer\": 42}")
+                ));
+        
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .addEventListenerFactory(new JfrCallEventListenerFactory())
+                .build();
+        
+        TestRetrofitAdapter retrofitAdapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        
+        Path recordingFile = Files.createTempFile("http-calls", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(HttpCallEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(HttpResponseBodyEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+            
+            try (ResponseBody body = retrofitAdapter.getInfo("main", true).execute().body()) {
+                assertNotNull(body);
+                body.string();
+            }
+            
+            recording.stop();
+            recording.dump(recordingFile);
+            
+            List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+            
+            RecordedEvent callEvent = events.stream()
+                    .filter(event -> event.getEventType().getName().equals("io.ankburov.retrofit.httpclient.HttpCall"))
+                    .findFirst()
+                    .orElseThrow();
+            assertEquals("GET", callEvent.getString("method"));
+            assertEquals(200, callEvent.getInt("status"));
+            assertTrue(callEvent.getDuration().toNanos() > 0);
+            
+            RecordedEvent bodyEvent = events.stream()
+                    .filter(event -> event.getEventType().getName().equals("io.ankburov.retrofit.httpclient.HttpResponseBody"))
+                    .findFirst()
+                    .orElseThrow();
+            assertEquals("{\"answer\": 42}".length(), bodyEvent.getLong("bytesIn"));
+        } finally {
+            Files.deleteIfExists(recordingFile);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.ankburov.retrofit.httpclient.load;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * Open model load generator: calls are enqueued at a fixed rate no matter how fast the previous ones complete
+ * <p>
+ * Latency is measured from the moment a call was scheduled to start rather than from the moment it actually
+ * started, so a stalled client does not hide its own stalls from the results (coordinated omission)
+ */
+public class FixedRateLoad {
+    
+    private final int ratePerSecond;
+    
+    @NotNull
+    private final Duration duration;
+    
+    public FixedRateLoad(int ratePerSecond, @NotNull Duration duration) {
+        this.ratePerSecond = ratePerSecond;
+        this.duration = duration;
+    }
+    
+    /**
+     * Enqueue calls from the current thread and wait for their completion
+     *
+     * @param completionTimeout time to wait for the calls still in flight once all of them are enqueued
+     */
+    public Result run(@NotNull Supplier<Call> calls, @NotNull Duration completionTimeout) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        int count = (int) (duration.toNanos() / intervalNanos);
+        Recorder recorder = new Recorder(count);
+        CountDownLatch completed = new CountDownLatch(count);
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long scheduled = start + i * intervalNanos;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int index = i;
+            calls.get().enqueue(new Callback() {
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) {
+                    response.close();
+                    recorder.record(index, System.nanoTime() - scheduled, !response.isSuccessful());
+                    completed.countDown();
+                }
+                
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    recorder.record(index, System.nanoTime() - scheduled, true);
+                    completed.countDown();
+                }
+            });
+        }
+        completed.await(completionTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        return recorder.finish(System.nanoTime() - start);
+    }
+    
+    /**
+     * Collects the results until the run is finished, calls completing after the timeout are ignored
+     */
+    private static final class Recorder {
+        
+        private final long[] latencies;
+        
+        private int failures;
+        
+        private boolean finished;
+        
+        private Recorder(int count) {
+            latencies = new long[count];
+            Arrays.fill(latencies, -1);
+        }
+        
+        private synchronized void record(int index, long latencyNanos, boolean failed) {
+            if (finished) {
+                return;
+            }
+            latencies[index] = latencyNanos;
+            if (failed) {
+                failures++;
+            }
+        }
+        
+        private synchronized Result finish(long elapsedNanos) {
+            finished = true;
+            return new Result(latencies, failures, elapsedNanos);
+        }
+    }
+    
+    public static class Result {
+        
+        private final int calls;
+        private final int failures;
+        private final long elapsedNanos;
+        
+        /**
+         * Latencies of the completed calls in ascending order
+         */
+        private final long[] latencies;
+        
+        private Result(long[] latencies, int failures, long elapsedNanos) {
+            this.calls = latencies.length;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+        }
+        
+        public int getCalls() {
+            return calls;
+        }
+        
+        public int getCompleted() {
+            return latencies.length;
+        }
+        
+        /**
+         * Calls failed with an exception or a non-2xx response
+         */
+        public int getFailures() {
+            return failures;
+        }
+        
+        public Duration percentile(double percentile) {
+            if (latencies.length == 0) {
+                return Duration.ZERO;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return Duration.ofNanos(latencies[Math.max(index, 0)]);
+        }
+        
+        public Duration getMax() {
+            return percentile(100);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%d calls in %d ms, %d completed, %d failed, p50 %d ms, p99 %d ms, p99.9 %d ms, max %d ms",
+                    calls, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getCompleted(), failures,
+                    percentile(50).toMillis(), percentile(99).toMillis(), percentile(99.9).toMillis(),
+                    getMax().toMillis());
+        }
+    }
+}
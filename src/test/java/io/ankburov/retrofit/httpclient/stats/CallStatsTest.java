@@ -0,0 +1,181 @@
+package io.ankburov.retrofit.httpclient.stats;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+
+import io.ankburov.retrofit.httpclient.AccessToken;
+import io.ankburov.retrofit.httpclient.HttpClientRetrofitCallFactory;
+import io.ankburov.retrofit.httpclient.TokenAuthenticator;
+import io.ankburov.retrofit.httpclient.adapter.TestRetrofitAdapter;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import retrofit2.Retrofit;
+
+public class CallStatsTest {
+    
+    private static WireMockServer wireMock = new WireMockServer(0);
+    
+    @BeforeClass
+    public static void setUp() {
+        wireMock.start();
+    }
+    
+    @AfterClass
+    public static void tearDown() {
+        wireMock.stop();
+    }
+    
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        
+        assertEquals(1000, histogram.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMaxNanos());
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(500), histogram.getValueAtPercentile(50));
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(990), histogram.getValueAtPercentile(99));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getValueAtPercentile(100));
+    }
+    
+    @Test
+    public void testCallStats() throws IOException, JMException {
+        wireMock.stubFor(post("/rest/post")
+                .willReturn(
+                        aResponse()
+                                .withStatus(202)
+                ));
+        
+        CallStats callStats = new CallStats();
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .addEventListener(callStats)
+                .build();
+        
+        TestRetrofitAdapter retrofitAdapter = new Retrofit.Builder()
+                .callFactory(callFactory)
+                .baseUrl(wireMock.baseUrl())
+                .build()
+                .create(TestRetrofitAdapter.class);
+        
+        retrofitAdapter.post().execute();
+        retrofitAdapter.postAsync().join();
+        
+        callFactory.newCall(new Request.Builder()
+                .url(wireMock.baseUrl() + "/rest/post")
+                .post(RequestBody.create(new byte[0]))
+                .build())
+                .execute()
+                .close();
+        
+        // Retrofit calls are recorded per service method, other calls per HTTP method
+        for (String method : List.of("TestRetrofitAdapter.post", "TestRetrofitAdapter.postAsync", "POST")) {
+            EndpointStats endpoint = callStats.getEndpoint("localhost", method);
+            assertNotNull(method, endpoint);
+            assertEquals(1, endpoint.getStatusCount(202));
+            assertEquals(1, endpoint.getLatency().getCount());
+        }
+        assertEquals(0, callStats.getInFlightCalls());
+        assertEquals(0, callStats.getCallbackQueueDepth());
+        
+        ObjectName objectName = callStats.registerMBean("test");
+        try {
+            assertEquals(3L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "CompletedCalls"));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+    }
+    
+    @Test
+    public void testCanceledCalls() {
+        wireMock.stubFor(get("/rest/slow")
+                .willReturn(
+                        aResponse()
+                                .withFixedDelay(1000)
+                ));
+        
+        CallStats callStats = new CallStats();
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .addEventListener(callStats)
+                .build();
+        
+        okhttp3.Call slowCall = callFactory.newCall(new Request.Builder()
+                .url(wireMock.baseUrl() + "/rest/slow")
+                .build());
+        slowCall.enqueue(new Callback() {
+            @Override
+            public void onResponse(@NotNull okhttp3.Call call, @NotNull Response response) {
+                response.close();
+            }
+            
+            @Override
+            public void onFailure(@NotNull okhttp3.Call call, @NotNull IOException e) {
+            }
+        });
+        assertEquals(1, callStats.getInFlightCalls());
+        slowCall.cancel();
+        
+        assertEquals(0, callStats.getInFlightCalls());
+        assertEquals(1, callStats.getCanceledCalls());
+        assertEquals(0, callStats.getCompletedCalls());
+    }
+    
+    @Test
+    public void testRetriedCalls() throws IOException {
+        wireMock.stubFor(get("/rest/unauthorized")
+                .willReturn(
+                        aResponse()
+                                .withStatus(401)
+                ));
+        
+        CallStats callStats = new CallStats();
+        TokenAuthenticator authenticator = TokenAuthenticator.builder(() -> CompletableFuture.completedFuture(
+                AccessToken.bearer("token", Instant.now().plus(Duration.ofHours(1)))))
+                .build();
+        HttpClientRetrofitCallFactory callFactory = HttpClientRetrofitCallFactory.builder(HttpClient.newHttpClient())
+                .withAuthenticator(authenticator)
+                .addEventListener(callStats)
+                .build();
+        
+        // rejected once more after the retry with a fresh token
+        try (Response response = callFactory.newCall(new Request.Builder()
+                .url(wireMock.baseUrl() + "/rest/unauthorized")
+                .build()).execute()) {
+            assertEquals(401, response.code());
+        }
+        
+        assertEquals(0, callStats.getInFlightCalls());
+        assertEquals(1, callStats.getRetriedCalls());
+        assertEquals(1, callStats.getCompletedCalls());
+    }
+    
+    private void assertWithinPrecision(long expected, long actual) {
+        assertTrue(actual + " is not within histogram precision of " + expected,
+                Math.abs(expected - actual) <= expected / 16);
+    }
+}
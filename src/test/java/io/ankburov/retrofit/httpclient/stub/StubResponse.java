@@ -0,0 +1,130 @@
+package io.ankburov.retrofit.httpclient.stub;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Random;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Response served by {@link StubServer} together with the faults injected into it
+ */
+public class StubResponse {
+    
+    final int status;
+    
+    @NotNull
+    final byte[] body;
+    
+    @NotNull
+    final Latency latency;
+    
+    final double resetRate;
+    
+    final int chunkSize;
+    
+    final long chunkDelayNanos;
+    
+    private StubResponse(@NotNull Builder builder) {
+        this.status = builder.status;
+        this.body = builder.body;
+        this.latency = builder.latency;
+        this.resetRate = builder.resetRate;
+        this.chunkSize = builder.chunkSize;
+        this.chunkDelayNanos = builder.chunkDelay.toNanos();
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Distribution of the delay before the response headers are sent
+     */
+    @FunctionalInterface
+    public interface Latency {
+        
+        Latency NONE = random -> 0;
+        
+        long nextNanos(@NotNull Random random);
+        
+        static Latency fixed(@NotNull Duration latency) {
+            long nanos = latency.toNanos();
+            return random -> nanos;
+        }
+        
+        static Latency uniform(@NotNull Duration min, @NotNull Duration max) {
+            long minNanos = min.toNanos();
+            long spreadNanos = max.toNanos() - minNanos;
+            return random -> minNanos + (long) (random.nextDouble() * spreadNanos);
+        }
+        
+        /**
+         * Mostly fast responses with a long tail, cut at the max
+         */
+        static Latency exponential(@NotNull Duration mean, @NotNull Duration max) {
+            long meanNanos = mean.toNanos();
+            long maxNanos = max.toNanos();
+            return random -> Math.min(maxNanos, (long) (-Math.log(1 - random.nextDouble()) * meanNanos));
+        }
+    }
+    
+    public static class Builder {
+        
+        private int status = 200;
+        
+        @NotNull
+        private byte[] body = new byte[0];
+        
+        @NotNull
+        private Latency latency = Latency.NONE;
+        
+        private double resetRate;
+        
+        private int chunkSize = Integer.MAX_VALUE;
+        
+        @NotNull
+        private Duration chunkDelay = Duration.ZERO;
+        
+        public Builder withStatus(int status) {
+            this.status = status;
+            return this;
+        }
+        
+        public Builder withBody(@NotNull String body) {
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+            return this;
+        }
+        
+        public Builder withBody(@NotNull byte[] body) {
+            this.body = body;
+            return this;
+        }
+        
+        public Builder withLatency(@NotNull Latency latency) {
+            this.latency = latency;
+            return this;
+        }
+        
+        /**
+         * Share of requests answered by closing the connection without a response
+         */
+        public Builder withResetRate(double resetRate) {
+            this.resetRate = resetRate;
+            return this;
+        }
+        
+        /**
+         * Send the body in chunks with a pause after each of them
+         */
+        public Builder withSlowBody(int chunkSize, @NotNull Duration chunkDelay) {
+            this.chunkSize = chunkSize;
+            this.chunkDelay = chunkDelay;
+            return this;
+        }
+        
+        public StubResponse build() {
+            return new StubResponse(this);
+        }
+    }
+}
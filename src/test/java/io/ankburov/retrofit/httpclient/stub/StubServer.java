@@ -0,0 +1,137 @@
+package io.ankburov.retrofit.httpclient.stub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP/1.1 server injecting latency, connection resets and slow bodies, lighter than WireMock for load
+ * tests
+ * <p>
+ * JDK HttpServer does not speak HTTP/2, so HTTP/2 stream limits can not be injected
+ */
+public class StubServer implements AutoCloseable {
+    
+    @NotNull
+    private final HttpServer server;
+    
+    @NotNull
+    private final ExecutorService executor;
+    
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    
+    private StubServer(@NotNull HttpServer server, @NotNull ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+    
+    /**
+     * Start the server on a free loopback port
+     */
+    public static StubServer start() throws IOException {
+        // injected latency parks handler threads, so the pool is not bounded
+        return start(Executors.newCachedThreadPool(StubServer::newThread));
+    }
+    
+    /**
+     * Start the server with a fixed number of handler threads, so the server does not add threads under load
+     */
+    public static StubServer start(int handlerThreads) throws IOException {
+        return start(Executors.newFixedThreadPool(handlerThreads, StubServer::newThread));
+    }
+    
+    private static StubServer start(ExecutorService executor) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.start();
+        return new StubServer(server, executor);
+    }
+    
+    /**
+     * Serve the path and all paths below it with the response
+     */
+    public StubServer stub(@NotNull String path, @NotNull StubResponse response) {
+        server.createContext(path, exchange -> handle(exchange, response));
+        return this;
+    }
+    
+    public String baseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort();
+    }
+    
+    public long getRequests() {
+        return requests.get();
+    }
+    
+    public long getResets() {
+        return resets.get();
+    }
+    
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+    
+    private void handle(HttpExchange exchange, StubResponse response) throws IOException {
+        requests.incrementAndGet();
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            requestBody.transferTo(OutputStream.nullOutputStream());
+        }
+        
+        long latencyNanos = response.latency.nextNanos(ThreadLocalRandom.current());
+        if (latencyNanos > 0) {
+            sleep(latencyNanos);
+        }
+        
+        if (response.resetRate > 0 && ThreadLocalRandom.current().nextDouble() < response.resetRate) {
+            // closing the exchange without a response drops the connection
+            resets.incrementAndGet();
+            exchange.close();
+            return;
+        }
+        
+        byte[] body = response.body;
+        exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            if (response.chunkDelayNanos == 0) {
+                responseBody.write(body);
+                return;
+            }
+            for (int offset = 0; offset < body.length; offset += response.chunkSize) {
+                responseBody.write(body, offset, Math.min(response.chunkSize, body.length - offset));
+                responseBody.flush();
+                sleep(response.chunkDelayNanos);
+            }
+        }
+    }
+    
+    private static Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "stub-server");
+        thread.setDaemon(true);
+        return thread;
+    }
+    
+    private static void sleep(long nanos) throws IOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Stub server is stopped", e);
+        }
+    }
+}